@@ -0,0 +1,83 @@
+package io.mrarm.arsc.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.mrarm.arsc.StringPoolBuilder;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringPoolBuilderBenchmark {
+
+    private static final int STRING_COUNT = 10000;
+
+    @Param({ "ascii", "cjk", "long" })
+    public String content;
+
+    @Param({ "true", "false" })
+    public boolean utf8;
+
+    @Param({ "false", "true" })
+    public boolean intern;
+
+    private String[] strings;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        strings = new String[STRING_COUNT];
+        for (int i = 0; i < STRING_COUNT; i++) {
+            switch (content) {
+                case "ascii":
+                    strings[i] = randomString(random, 8 + random.nextInt(24), 'a', 26);
+                    break;
+                case "cjk":
+                    strings[i] = randomString(random, 4 + random.nextInt(12), '\u4e00', 0x5000);
+                    break;
+                case "long":
+                    // long enough to need the two byte length encoding in UTF-8, which can't encode lengths
+                    // above 0x7FFF
+                    strings[i] = randomString(random, 0x1000 + random.nextInt(0x7000), 'a', 26);
+                    if (i >= STRING_COUNT / 50) {
+                        // keep the data set at a manageable size
+                        strings[i] = strings[i % (STRING_COUNT / 50)];
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(content);
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length, char first, int range) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) (first + random.nextInt(range));
+        return new String(chars);
+    }
+
+    @Benchmark
+    public StringPoolBuilder appendString() {
+        StringPoolBuilder builder = new StringPoolBuilder(utf8, intern);
+        for (String str : strings)
+            builder.appendString(str);
+        return builder;
+    }
+
+}
@@ -0,0 +1,61 @@
+package io.mrarm.arsc.benchmarks;
+
+import java.util.Random;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+// Builds tables that look roughly like the ones of a real app: mostly strings, some of them repeated, a few
+// integers and every tenth resource a style-like map entry. Every configuration defines every resource.
+final class SyntheticTables {
+
+    private static final String[] LANGUAGES = { "en", "fr", "de", "es", "it", "pt", "ru", "ja", "zh", "ko",
+            "pl", "nl", "sv", "tr", "ar", "hi" };
+    private static final int MAX_ENTRIES_PER_TYPE = 0x8000;
+
+    private SyntheticTables() {
+    }
+
+    // Creates a table with totalEntries entries split evenly between configCount configurations
+    static ResTable create(int totalEntries, int configCount) {
+        Random random = new Random(totalEntries * 31L + configCount);
+        int resourceCount = Math.max(totalEntries / configCount, 1);
+        int typeCount = (resourceCount + MAX_ENTRIES_PER_TYPE - 1) / MAX_ENTRIES_PER_TYPE;
+
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(0x7f, "io.mrarm.arsc.benchmarks");
+        for (int t = 0; t < typeCount; t++) {
+            int typeId = t + 1;
+            int count = Math.min(MAX_ENTRIES_PER_TYPE, resourceCount - t * MAX_ENTRIES_PER_TYPE);
+            pkg.addType(new ResTable.TypeSpec(typeId, "type" + typeId, new int[count]));
+            for (int c = 0; c < configCount; c++) {
+                ResTable.Config config = new ResTable.Config();
+                if (c > 0)
+                    config.language = LANGUAGES[(c - 1) % LANGUAGES.length];
+                ResTable.Type type = new ResTable.Type(typeId, config);
+                for (int i = 0; i < count; i++)
+                    type.addEntry(createEntry(random, typeId, i, c));
+                pkg.addType(type);
+            }
+        }
+        table.addPackage(pkg);
+        return table;
+    }
+
+    private static ResTable.EntryBase createEntry(Random random, int typeId, int id, int config) {
+        String key = "res_" + typeId + "_" + id;
+        if (id % 10 == 9) {
+            ResTable.MapEntry entry = new ResTable.MapEntry(id, key);
+            entry.addValue(0x01010000 + random.nextInt(16), new ResValue.Integer(ResValue.TYPE_INT_DEC, id));
+            entry.addValue(0x01010010 + random.nextInt(16), new ResValue.Text("style value " + config));
+            entry.addValue(0x01010020 + random.nextInt(16), new ResValue.Reference(0x7f010000 + id - 1));
+            return entry;
+        }
+        if (id % 10 == 8)
+            return new ResTable.Entry(id, key, new ResValue.Integer(ResValue.TYPE_INT_COLOR_ARGB8, random.nextInt()));
+        if (id % 4 == 0) // a repeated string, e.g. "OK" or "Cancel"
+            return new ResTable.Entry(id, key, new ResValue.Text("common string " + (id % 64) + " " + config));
+        return new ResTable.Entry(id, key, new ResValue.Text("string " + id + " of type " + typeId + " in " + config));
+    }
+
+}
@@ -0,0 +1,83 @@
+package io.mrarm.arsc.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.mrarm.arsc.ArscWriter;
+import io.mrarm.arsc.DataWritePreparer;
+import io.mrarm.arsc.chunks.ResTable;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class TableWriteBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int entries;
+
+    @Param({ "1", "8" })
+    public int configs;
+
+    private ResTable table;
+
+    @Setup
+    public void setup() {
+        table = SyntheticTables.create(entries, configs);
+    }
+
+    @Benchmark
+    public ResTable.Writer prepare() throws IOException {
+        ResTable.Writer writer = new ResTable.Writer(table);
+        writer.prepare(new DataWritePreparer());
+        return writer;
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        DiscardingChannel channel = new DiscardingChannel();
+        new ArscWriter(table).write(channel);
+        return channel.written;
+    }
+
+    // Counts the bytes instead of keeping them, so that only the writer itself is measured
+    private static class DiscardingChannel implements WritableByteChannel {
+
+        long written;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+package io.mrarm.arsc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import io.mrarm.arsc.chunks.ResChunk;
+
+// Writes many tables concurrently, e.g. the variants of an app, one task of the executor per table. Every table
+// is written with the settings of the given writer, except that it's prepared and serialized on a single thread
+// as the tables themselves are what is parallelized. The string pools of all the tables share a
+// StringEncodingCache, so strings and keys the tables have in common are only encoded once. A table that fails
+// to be written doesn't stop the others, its failure is reported in its Result instead.
+public class ArscBatchWriter {
+
+    private final ArscWriter settings;
+    private final ExecutorService executor;
+    private StringEncodingCache stringEncodingCache = new StringEncodingCache();
+    private final List<Result> results = new ArrayList<>();
+
+    public ArscBatchWriter(ArscWriter settings, ExecutorService executor) {
+        this.settings = settings;
+        this.executor = executor;
+    }
+
+    public void setStringEncodingCache(StringEncodingCache cache) {
+        this.stringEncodingCache = cache;
+    }
+
+    public void add(ResChunk.RootChunk root, Path output) {
+        results.add(new Result(root, output));
+    }
+
+    // Writes all the added tables and returns their results in the order they were added. If interrupted, the
+    // tables that haven't been written yet are cancelled. Exceptions are reported in the results of the tables,
+    // only Errors are thrown.
+    public List<Result> writeAll() throws InterruptedException {
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (final Result result : results) {
+                final ArscWriter writer = new ArscWriter(result.root, settings);
+                writer.setExecutor(null);
+                writer.setStringEncodingCache(stringEncodingCache);
+                writer.evictCacheAfterWrite = false;
+                tasks.add(executor.submit(() -> write(writer, result)));
+            }
+            for (Future<?> task : tasks)
+                task.get();
+        } catch (ExecutionException e) {
+            // write catches every Exception into the result, so only an Error can get here
+            throw (Error) e.getCause();
+        } finally {
+            for (Future<?> task : tasks)
+                task.cancel(true);
+        }
+        try {
+            settings.evictCache();
+        } catch (IOException e) {
+            // the tables were written fine, the cache will be trimmed on the next write
+        }
+        return new ArrayList<>(results);
+    }
+
+    private static void write(ArscWriter writer, Result result) {
+        long start = System.nanoTime();
+        try {
+            writer.write(result.output);
+            result.size = Files.size(result.output);
+        } catch (Exception e) {
+            result.failure = e;
+        }
+        result.durationNanos = System.nanoTime() - start;
+    }
+
+    public static class Result {
+
+        private final ResChunk.RootChunk root;
+        private final Path output;
+        private volatile long size;
+        private volatile long durationNanos;
+        private volatile Throwable failure;
+
+        Result(ResChunk.RootChunk root, Path output) {
+            this.root = root;
+            this.output = output;
+        }
+
+        public ResChunk.RootChunk getRoot() {
+            return root;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+
+        public boolean isSuccessful() {
+            return failure == null;
+        }
+
+        // null if the table was written successfully
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,455 @@
+package io.mrarm.arsc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.mrarm.arsc.chunks.ResStringPool;
+import io.mrarm.arsc.chunks.ResTable;
+
+// Applies entry edits to an existing resources.arsc. Only the edited Type chunks (and the type spec, key and global
+// string pools if they have to grow) are serialized again; every other chunk is copied from the input as is.
+// Strings and keys introduced by the edits are appended to the existing pools unless they are already in them, so
+// the indices referenced by the untouched chunks stay valid. Strings which are no longer referenced are not removed.
+// The edited types are written with the encoding settings of an ArscWriter, and keep the offset table encoding
+// they had if the settings don't pick one and the entries still fit it.
+public class ArscPatcher implements Closeable {
+
+    private static final int PACKAGE_TYPE_STRINGS_OFFSET = 8 + 4 + 128 * 2;
+    private static final int PACKAGE_KEY_STRINGS_OFFSET = PACKAGE_TYPE_STRINGS_OFFSET + 8;
+    private static final int MAX_SHORT_OFFSET_ENTRY_DATA_SIZE = 0xFFFF * 4;
+
+    private final FileChannel input;
+    private final ArscReader reader;
+    private final DataWritePreparer settings;
+    // entry id -> new entry, or null if the entry is to be removed
+    private final Map<ArscReader.TypeReader, TreeMap<Integer, ResTable.EntryBase>> edits = new IdentityHashMap<>();
+
+    public ArscPatcher(Path input, ArscWriter settings) throws IOException {
+        this.settings = settings.createPreparer();
+        this.input = FileChannel.open(input, StandardOpenOption.READ);
+        try {
+            this.reader = new ArscReader(this.input.map(FileChannel.MapMode.READ_ONLY, 0, this.input.size()));
+        } catch (IOException e) {
+            this.input.close();
+            throw e;
+        }
+    }
+
+    public ArscPatcher(Path input) throws IOException {
+        this(input, new ArscWriter(null));
+    }
+
+    public ArscReader getReader() {
+        return reader;
+    }
+
+    private TreeMap<Integer, ResTable.EntryBase> getEdits(ArscReader.TypeReader type) {
+        TreeMap<Integer, ResTable.EntryBase> ret = edits.get(type);
+        if (ret == null) {
+            ret = new TreeMap<>();
+            edits.put(type, ret);
+        }
+        return ret;
+    }
+
+    // Adds the entry to the type, replacing the entry with the same ID if there already is one
+    public void putEntry(ArscReader.TypeReader type, ResTable.EntryBase entry) {
+        getEdits(type).put(entry.id, entry);
+    }
+
+    public void removeEntry(ArscReader.TypeReader type, int entryId) {
+        getEdits(type).put(entryId, null);
+    }
+
+    public void write(Path output) throws IOException {
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel);
+        }
+    }
+
+    public void write(WritableByteChannel output) throws IOException {
+        ArscReader.StringPoolReader globalPool = reader.getGlobalStringPool();
+        StringPoolAppender globalStrings = new StringPoolAppender(globalPool);
+        Map<ArscReader.ChunkReader, ByteBuffer> patched = new HashMap<>();
+        for (ArscReader.PackageReader pkg : reader.getPackages())
+            patchPackage(pkg, globalStrings, patched);
+        ByteBuffer patchedGlobalPool = globalStrings.buildPool();
+        if (patchedGlobalPool != null)
+            patched.put(globalPool, patchedGlobalPool);
+
+        int tableSize = reader.getHeaderSize();
+        for (ArscReader.ChunkReader chunk : reader.getChunks())
+            tableSize += getPatchedSize(chunk, patched);
+        ByteBuffer header = copyHeader(reader.getData(), 0, reader.getHeaderSize());
+        header.putInt(4, tableSize);
+        writeFully(output, header);
+        for (ArscReader.ChunkReader chunk : reader.getChunks())
+            writeChunk(output, chunk, patched);
+    }
+
+    private static int getPatchedSize(ArscReader.ChunkReader chunk,
+                                      Map<ArscReader.ChunkReader, ByteBuffer> patched) {
+        ByteBuffer data = patched.get(chunk);
+        if (data != null)
+            return data.remaining();
+        if (chunk instanceof ArscReader.PackageReader) {
+            ArscReader.PackageReader pkg = (ArscReader.PackageReader) chunk;
+            if (hasPatchedChildren(pkg, patched)) {
+                int size = pkg.getHeaderSize();
+                for (ArscReader.ChunkReader child : pkg.getChunks())
+                    size += getPatchedSize(child, patched);
+                return size;
+            }
+        }
+        return chunk.getSize();
+    }
+
+    private void writeChunk(WritableByteChannel output, ArscReader.ChunkReader chunk,
+                            Map<ArscReader.ChunkReader, ByteBuffer> patched) throws IOException {
+        ByteBuffer data = patched.get(chunk);
+        if (data != null) {
+            writeFully(output, data);
+            return;
+        }
+        if (chunk instanceof ArscReader.PackageReader &&
+                hasPatchedChildren((ArscReader.PackageReader) chunk, patched)) {
+            ArscReader.PackageReader pkg = (ArscReader.PackageReader) chunk;
+            ByteBuffer header = copyHeader(pkg.getChunkData(), 0, pkg.getHeaderSize());
+            int off = pkg.getHeaderSize();
+            for (ArscReader.ChunkReader child : pkg.getChunks()) {
+                if (child == pkg.getTypeStrings())
+                    header.putInt(PACKAGE_TYPE_STRINGS_OFFSET, off);
+                else if (child == pkg.getKeyStrings())
+                    header.putInt(PACKAGE_KEY_STRINGS_OFFSET, off);
+                off += getPatchedSize(child, patched);
+            }
+            header.putInt(4, off);
+            writeFully(output, header);
+            for (ArscReader.ChunkReader child : pkg.getChunks())
+                writeChunk(output, child, patched);
+            return;
+        }
+        long pos = chunk.getOffset();
+        long end = pos + chunk.getSize();
+        while (pos < end)
+            pos += input.transferTo(pos, end - pos, output);
+    }
+
+    private static boolean hasPatchedChildren(ArscReader.PackageReader pkg,
+                                              Map<ArscReader.ChunkReader, ByteBuffer> patched) {
+        for (ArscReader.ChunkReader child : pkg.getChunks()) {
+            if (patched.containsKey(child))
+                return true;
+        }
+        return false;
+    }
+
+    private static void writeFully(WritableByteChannel output, ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            output.write(data);
+    }
+
+    private static ByteBuffer copyHeader(ByteBuffer src, int offset, int size) {
+        ByteBuffer ret = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer part = src.duplicate();
+        part.limit(offset + size);
+        part.position(offset);
+        ret.put(part);
+        ret.flip();
+        return ret;
+    }
+
+    private static ByteBuffer slice(ByteBuffer src, int offset, int size) {
+        ByteBuffer ret = src.duplicate();
+        ret.limit(offset + size);
+        ret.position(offset);
+        return ret;
+    }
+
+    private void patchPackage(ArscReader.PackageReader pkg, StringPoolAppender globalStrings,
+                              Map<ArscReader.ChunkReader, ByteBuffer> patched) throws IOException {
+        PackagePatcher patcher = null;
+        Map<Integer, Integer> typeSpecSizes = new HashMap<>();
+        for (ArscReader.TypeReader type : pkg.getTypes()) {
+            TreeMap<Integer, ResTable.EntryBase> typeEdits = edits.get(type);
+            if (typeEdits == null || typeEdits.isEmpty())
+                continue;
+            if (patcher == null)
+                patcher = new PackagePatcher(pkg, globalStrings, settings);
+            patched.put(type, patcher.patchType(type, typeEdits));
+            for (Map.Entry<Integer, ResTable.EntryBase> edit : typeEdits.descendingMap().entrySet()) {
+                if (edit.getValue() == null)
+                    continue;
+                Integer specSize = typeSpecSizes.get(type.getId());
+                if (specSize == null || specSize <= edit.getKey())
+                    typeSpecSizes.put(type.getId(), edit.getKey() + 1);
+                break;
+            }
+        }
+        if (patcher == null)
+            return;
+        for (ArscReader.TypeSpecReader spec : pkg.getTypeSpecs()) {
+            Integer size = typeSpecSizes.get(spec.getId());
+            if (size != null && size > spec.getEntryCount())
+                patched.put(spec, growTypeSpec(spec, size));
+        }
+        ByteBuffer keys = patcher.keyStrings.buildPool();
+        if (keys != null)
+            patched.put(pkg.getKeyStrings(), keys);
+    }
+
+    private static ByteBuffer growTypeSpec(ArscReader.TypeSpecReader spec, int entryCount) {
+        ByteBuffer src = spec.getChunkData();
+        int size = spec.getHeaderSize() + entryCount * 4;
+        ByteBuffer ret = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        ret.put(slice(src, 0, spec.getHeaderSize() + spec.getEntryCount() * 4));
+        ret.putInt(4, size);
+        ret.putInt(12, entryCount);
+        ret.position(0);
+        return ret;
+    }
+
+
+    // Appends strings to an existing pool. A sorted pool is binary searched for the strings already in it; any
+    // other one would have to be read as a whole, so strings are appended to it even if present, which the
+    // format allows. The added strings themselves are only added once.
+    private static class StringPoolAppender {
+
+        private final ArscReader.StringPoolReader pool;
+        private final StringPoolBuilder added;
+
+        StringPoolAppender(ArscReader.StringPoolReader pool) {
+            this.pool = pool;
+            this.added = new StringPoolBuilder(pool.isUtf8(), true);
+        }
+
+        int appendString(String str) {
+            int ret = findString(str);
+            if (ret != -1)
+                return ret;
+            return pool.getStringCount() + added.appendString(str);
+        }
+
+        // Returns the index of the string in a sorted pool, or -1. A pool sorted in another order than the one of
+        // the code points, which is what the key pools of this library use, may not find it.
+        private int findString(String str) {
+            if ((pool.getFlags() & ResStringPool.FLAG_SORTED) == 0)
+                return -1;
+            int lo = 0;
+            int hi = pool.getStringCount() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = ResTable.Package.Writer.compareCodePoints(pool.getString(mid), str);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    // styled strings are skipped, as their styles would apply to the plain string too
+                    return mid >= pool.getStyleCount() ? mid : -1;
+                }
+            }
+            return -1;
+        }
+
+        ByteBuffer buildPool() throws IOException {
+            if (added.getStringCount() == 0)
+                return null;
+            ResStringPool addedPool = added.build();
+            ByteBuffer src = pool.getChunkData();
+            int headerSize = pool.getHeaderSize();
+            int oldCount = pool.getStringCount();
+            int styleCount = pool.getStyleCount();
+            int newCount = oldCount + addedPool.stringOffsets.length;
+            int stringDataSize = pool.getStylesStart() - pool.getStringsStart();
+            int addedDataSize = (addedPool.stringData.size() + 3) / 4 * 4;
+            int styleDataSize = pool.getSize() - pool.getStylesStart();
+            int stringsStart = headerSize + (newCount + styleCount) * 4;
+            int size = stringsStart + stringDataSize + addedDataSize + styleDataSize;
+
+            ByteBuffer ret = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            ret.put(slice(src, 0, headerSize));
+            ret.putInt(4, size);
+            ret.putInt(8, newCount);
+            ret.putInt(16, pool.getFlags() & ~ResStringPool.FLAG_SORTED);
+            ret.putInt(20, stringsStart);
+            ret.putInt(24, styleCount > 0 ? stringsStart + stringDataSize + addedDataSize : 0);
+            ret.put(slice(src, headerSize, oldCount * 4));
+            for (int off : addedPool.stringOffsets)
+                ret.putInt(stringDataSize + off);
+            ret.put(slice(src, headerSize + oldCount * 4, styleCount * 4));
+            ret.put(slice(src, pool.getStringsStart(), stringDataSize));
+            addedPool.stringData.writeTo(new DataWriter(ret));
+            ret.position(ret.position() + addedDataSize - addedPool.stringData.size());
+            ret.put(slice(src, pool.getStylesStart(), styleDataSize));
+            ret.flip();
+            return ret;
+        }
+
+    }
+
+    private static class PackagePatcher {
+
+        private final ArscReader.PackageReader pkg;
+        private final List<ArscReader.TypeReader> types;
+        private final StringPoolAppender keyStrings;
+        private final ResTable.Package.Writer packageWriter;
+        private final DataWritePreparer preparer;
+        // the key index of the entry being prepared, if an entry of the same resource already has its key
+        private int existingKeyIndex = -1;
+
+        PackagePatcher(ArscReader.PackageReader pkg, final StringPoolAppender globalStrings,
+                       DataWritePreparer settings) {
+            this.pkg = pkg;
+            this.types = pkg.getTypes();
+            this.keyStrings = new StringPoolAppender(pkg.getKeyStrings());
+            this.packageWriter = new ResTable.Package.Writer(new ResTable.Package(pkg.getId(), pkg.getName())) {
+                @Override
+                protected int getKeyIndex(String key, boolean isPublic) {
+                    if (existingKeyIndex != -1)
+                        return existingKeyIndex;
+                    return keyStrings.appendString(key);
+                }
+            };
+            this.preparer = new DataWritePreparer(settings) {
+                @Override
+                public int appendGlobalString(String text) {
+                    return globalStrings.appendString(text);
+                }
+            };
+        }
+
+        // Returns the key index of the entry with the id in any of the Types with the type id, if it has the given
+        // key. All the configurations of a resource share its key, so this finds the keys of the resources that
+        // already exist without searching the key pool.
+        private int findKeyIndex(int typeId, int entryId, String key) {
+            for (ArscReader.TypeReader type : types) {
+                if (type.getId() != typeId)
+                    continue;
+                int index = type.getEntryKeyIndex(entryId);
+                if (index != -1 && key.equals(pkg.getKeyStrings().getString(index)))
+                    return index;
+            }
+            return -1;
+        }
+
+        ByteBuffer patchType(ArscReader.TypeReader type, TreeMap<Integer, ResTable.EntryBase> typeEdits)
+                throws IOException {
+            // merge the entries that are kept with the edited ones, in ID order
+            TreeMap<Integer, Object> entries = new TreeMap<>();
+            for (int id : type.getEntryIds())
+                entries.put(id, type.getEntryOffset(id));
+            for (Map.Entry<Integer, ResTable.EntryBase> edit : typeEdits.entrySet()) {
+                if (edit.getValue() == null) {
+                    entries.remove(edit.getKey());
+                } else {
+                    ResTable.EntryBase.Writer writer = edit.getValue().createWriter(packageWriter);
+                    existingKeyIndex = findKeyIndex(type.getId(), edit.getKey(), edit.getValue().key);
+                    writer.prepare(preparer);
+                    existingKeyIndex = -1;
+                    entries.put(edit.getKey(), writer);
+                }
+            }
+
+            int count = entries.size();
+            int maxId = count > 0 ? entries.lastKey() : -1;
+            int[] ids = new int[count];
+            int[] offsets = new int[count];
+            // old entries may share their data, so keep them sharing it
+            Map<Integer, Integer> movedOffsets = new HashMap<>();
+            int dataSize = 0;
+            int i = 0;
+            for (Map.Entry<Integer, Object> entry : entries.entrySet()) {
+                ids[i] = entry.getKey();
+                if (entry.getValue() instanceof ResTable.EntryBase.Writer) {
+                    offsets[i] = dataSize;
+                    dataSize += ((ResTable.EntryBase.Writer) entry.getValue()).getTotalSize();
+                } else {
+                    int oldOffset = (Integer) entry.getValue();
+                    Integer moved = movedOffsets.get(oldOffset);
+                    if (moved != null) {
+                        offsets[i] = moved;
+                    } else {
+                        movedOffsets.put(oldOffset, dataSize);
+                        offsets[i] = dataSize;
+                        dataSize += type.getEntrySize(oldOffset);
+                    }
+                }
+                i++;
+            }
+
+            // encode the offset table as the writer would, otherwise keep its encoding if the entries still fit it
+            int typeFlags = ResTable.Type.chooseFlags(preparer, count, maxId, dataSize);
+            if (typeFlags == 0 && dataSize <= MAX_SHORT_OFFSET_ENTRY_DATA_SIZE && maxId <= 0xFFFF)
+                typeFlags = type.getTypeFlags() & (ResTable.Type.FLAG_SPARSE | ResTable.Type.FLAG_OFFSET16);
+            boolean sparse = (typeFlags & ResTable.Type.FLAG_SPARSE) != 0;
+            boolean offset16 = (typeFlags & ResTable.Type.FLAG_OFFSET16) != 0;
+            int offsetCount = sparse ? count : maxId + 1;
+            int offsetTableSize = offset16 ? (offsetCount * 2 + 3) / 4 * 4 : offsetCount * 4;
+            int headerSize = type.getHeaderSize();
+            int size = headerSize + offsetTableSize + dataSize;
+
+            ByteBuffer src = type.getChunkData();
+            ByteBuffer ret = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            ret.put(slice(src, 0, headerSize));
+            ret.putInt(4, size);
+            ret.put(9, (byte) ((type.getTypeFlags() & ~(ResTable.Type.FLAG_SPARSE | ResTable.Type.FLAG_OFFSET16)) |
+                    typeFlags));
+            ret.putInt(12, offsetCount);
+            ret.putInt(16, headerSize + offsetTableSize);
+            if (sparse) {
+                for (i = 0; i < count; i++) {
+                    ret.putShort((short) ids[i]);
+                    ret.putShort((short) (offsets[i] / 4));
+                }
+            } else {
+                int[] table = new int[offsetCount];
+                Arrays.fill(table, -1);
+                for (i = 0; i < count; i++)
+                    table[ids[i]] = offsets[i];
+                for (int off : table) {
+                    if (offset16)
+                        ret.putShort((short) (off == -1 ? 0xFFFF : off / 4));
+                    else
+                        ret.putInt(off);
+                }
+                ret.position(headerSize + offsetTableSize);
+            }
+            DataWriter writer = new DataWriter(ret);
+            movedOffsets.clear();
+            for (Object entry : entries.values()) {
+                if (entry instanceof ResTable.EntryBase.Writer) {
+                    ((ResTable.EntryBase.Writer) entry).write(writer);
+                } else {
+                    int oldOffset = (Integer) entry;
+                    if (movedOffsets.put(oldOffset, oldOffset) == null)
+                        ret.put(slice(src, type.getEntriesStart() + oldOffset, type.getEntrySize(oldOffset)));
+                }
+            }
+            if (ret.position() != size)
+                throw new IOException("patched type " + type.getId() + " has an unexpected size");
+            ret.flip();
+            return ret;
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+}
@@ -0,0 +1,633 @@
+package io.mrarm.arsc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.mrarm.arsc.chunks.ResChunk;
+import io.mrarm.arsc.chunks.ResStringPool;
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+// Reads an existing resources.arsc without copying it. Only the chunk headers are parsed up front; strings are
+// decoded when they are first accessed and entries whenever they are requested. The readers can be converted to
+// the ResTable model classes, chunks the model has no counterpart for (e.g. libraries or overlayables) are
+// skipped when doing so.
+public class ArscReader {
+
+    private static final Charset UTF8Charset = Charset.forName("UTF-8");
+
+    private final ByteBuffer data;
+    private final int headerSize;
+    private final StringPoolReader globalStringPool;
+    private final List<PackageReader> packages = new ArrayList<>();
+    private final List<ChunkReader> chunks = new ArrayList<>();
+
+    public ArscReader(ByteBuffer data) throws IOException {
+        this.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        ChunkReader table = new ChunkReader(this.data, 0);
+        if (table.getChunkType() != ResChunk.TYPE_TABLE)
+            throw new IOException("not a resource table");
+        headerSize = table.getHeaderSize();
+        StringPoolReader globalPool = null;
+        for (ChunkReader child : table.readChildren()) {
+            if (child.getChunkType() == ResChunk.TYPE_STRING_POOL && globalPool == null) {
+                child = globalPool = new StringPoolReader(this.data, child.getOffset());
+            } else if (child.getChunkType() == ResChunk.TYPE_TABLE_PACKAGE) {
+                PackageReader pkg = new PackageReader(this, child.getOffset());
+                packages.add(pkg);
+                child = pkg;
+            }
+            chunks.add(child);
+        }
+        if (globalPool == null)
+            throw new IOException("the table has no string pool");
+        globalStringPool = globalPool;
+    }
+
+    public static ArscReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new ArscReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public ByteBuffer getData() {
+        return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getHeaderSize() {
+        return headerSize;
+    }
+
+    // All the top level chunks in file order
+    public List<ChunkReader> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    public StringPoolReader getGlobalStringPool() {
+        return globalStringPool;
+    }
+
+    public List<PackageReader> getPackages() {
+        return Collections.unmodifiableList(packages);
+    }
+
+    public PackageReader getPackage(int id) {
+        for (PackageReader pkg : packages) {
+            if (pkg.getId() == id)
+                return pkg;
+        }
+        return null;
+    }
+
+    public ResTable toResTable() {
+        ResTable ret = new ResTable();
+        for (PackageReader pkg : packages)
+            ret.addPackage(pkg.toPackage());
+        return ret;
+    }
+
+    private static ResValue createValue(StringPoolReader globalPool, int dataType, int data) {
+        if (dataType == ResValue.TYPE_STRING)
+            return new ResValue.Text(globalPool.getString(data));
+        if (dataType == ResValue.TYPE_REFERENCE)
+            return new ResValue.Reference(data);
+        return new ResValue.Integer((byte) dataType, data);
+    }
+
+
+    public static class ChunkReader {
+
+        protected final ByteBuffer data;
+        protected final int offset;
+        private final int type;
+        private final int headerSize;
+        private final int size;
+
+        ChunkReader(ByteBuffer data, int offset) throws IOException {
+            this.data = data;
+            this.offset = offset;
+            if (offset < 0 || offset + 8 > data.limit())
+                throw new IOException("chunk at " + offset + " is out of bounds");
+            type = data.getShort(offset) & 0xffff;
+            headerSize = data.getShort(offset + 2) & 0xffff;
+            size = data.getInt(offset + 4);
+            if (headerSize < 8 || size < headerSize || size > data.limit() - offset)
+                throw new IOException("malformed chunk at " + offset);
+        }
+
+        public int getChunkType() {
+            return type;
+        }
+
+        // Offset of the chunk from the start of the table
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getHeaderSize() {
+            return headerSize;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        // The raw bytes of the whole chunk, including the header
+        public ByteBuffer getChunkData() {
+            ByteBuffer ret = data.duplicate();
+            ret.limit(offset + size);
+            ret.position(offset);
+            return ret.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        List<ChunkReader> readChildren() throws IOException {
+            List<ChunkReader> ret = new ArrayList<>();
+            int off = offset + headerSize;
+            int end = offset + size;
+            while (off + 8 <= end) {
+                ChunkReader child = new ChunkReader(data, off);
+                if (off + child.size > end)
+                    throw new IOException("chunk at " + off + " exceeds its parent");
+                ret.add(child);
+                off += child.size;
+            }
+            return ret;
+        }
+
+    }
+
+    public static class StringPoolReader extends ChunkReader {
+
+        private final int stringCount;
+        private final int styleCount;
+        private final int flags;
+        private final int stringsStart;
+        private final int stylesStart;
+        private String[] strings;
+
+        StringPoolReader(ByteBuffer data, int offset) throws IOException {
+            super(data, offset);
+            if (getChunkType() != ResChunk.TYPE_STRING_POOL)
+                throw new IOException("expected a string pool at " + offset);
+            stringCount = data.getInt(offset + 8);
+            styleCount = data.getInt(offset + 12);
+            flags = data.getInt(offset + 16);
+            stringsStart = offset + data.getInt(offset + 20);
+            stylesStart = (styleCount > 0 ? offset + data.getInt(offset + 24) : offset + getSize());
+            if (stringCount < 0 || styleCount < 0 ||
+                    getHeaderSize() + (stringCount + (long) styleCount) * 4 > getSize())
+                throw new IOException("malformed string pool at " + offset);
+        }
+
+        public int getStringCount() {
+            return stringCount;
+        }
+
+        public int getStyleCount() {
+            return styleCount;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        // Start of the string data, relative to the start of the chunk
+        public int getStringsStart() {
+            return stringsStart - offset;
+        }
+
+        // Start of the style data (or the end of the chunk if there are no styles), relative to the chunk
+        public int getStylesStart() {
+            return stylesStart - offset;
+        }
+
+        public boolean isUtf8() {
+            return (flags & ResStringPool.FLAG_UTF8) != 0;
+        }
+
+        public String getString(int index) {
+            if (index < 0 || index >= stringCount)
+                throw new IndexOutOfBoundsException("string " + index + " of " + stringCount);
+            String[] cache = strings;
+            if (cache == null)
+                cache = strings = new String[stringCount];
+            String ret = cache[index];
+            if (ret == null) {
+                int pos = stringsStart + data.getInt(offset + getHeaderSize() + index * 4);
+                ret = cache[index] = (isUtf8() ? decodeUtf8(pos) : decodeUtf16(pos));
+            }
+            return ret;
+        }
+
+        private String decodeUtf8(int pos) {
+            if ((data.get(pos) & 0x80) != 0) // skip the UTF-16 length
+                pos++;
+            pos++;
+            int length = data.get(pos++) & 0xff;
+            if ((length & 0x80) != 0)
+                length = ((length & 0x7f) << 8) | (data.get(pos++) & 0xff);
+            ByteBuffer bytes = data.duplicate();
+            bytes.limit(pos + length);
+            bytes.position(pos);
+            return UTF8Charset.decode(bytes).toString();
+        }
+
+        private String decodeUtf16(int pos) {
+            int length = data.getShort(pos) & 0xffff;
+            pos += 2;
+            if ((length & 0x8000) != 0) {
+                length = ((length & 0x7fff) << 16) | (data.getShort(pos) & 0xffff);
+                pos += 2;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++)
+                chars[i] = data.getChar(pos + i * 2);
+            return new String(chars);
+        }
+
+    }
+
+    public static class PackageReader extends ChunkReader {
+
+        private final ArscReader table;
+        private final int id;
+        private final String name;
+        private final int lastPublicType;
+        private final int lastPublicKey;
+        private StringPoolReader typeStrings;
+        private StringPoolReader keyStrings;
+        private final List<ChunkReader> chunks;
+
+        PackageReader(ArscReader table, int offset) throws IOException {
+            super(table.data, offset);
+            this.table = table;
+            id = data.getInt(offset + 8);
+            char[] nameChars = new char[128];
+            int nameLength = 0;
+            while (nameLength < 128 && (nameChars[nameLength] = data.getChar(offset + 12 + nameLength * 2)) != 0)
+                nameLength++;
+            name = new String(nameChars, 0, nameLength);
+            int typeStringsOffset = offset + data.getInt(offset + 12 + 256);
+            lastPublicType = data.getInt(offset + 12 + 256 + 4);
+            int keyStringsOffset = offset + data.getInt(offset + 12 + 256 + 8);
+            lastPublicKey = data.getInt(offset + 12 + 256 + 12);
+            chunks = new ArrayList<>();
+            for (ChunkReader child : readChildren()) {
+                if (child.getOffset() == typeStringsOffset)
+                    child = typeStrings = new StringPoolReader(data, child.getOffset());
+                else if (child.getOffset() == keyStringsOffset)
+                    child = keyStrings = new StringPoolReader(data, child.getOffset());
+                else if (child.getChunkType() == ResChunk.TYPE_TABLE_TYPE_SPEC)
+                    child = new TypeSpecReader(this, child.getOffset());
+                else if (child.getChunkType() == ResChunk.TYPE_TABLE_TYPE)
+                    child = new TypeReader(this, child.getOffset());
+                chunks.add(child);
+            }
+            if (typeStrings == null || keyStrings == null)
+                throw new IOException("package " + id + " is missing its type or key strings");
+        }
+
+        public ArscReader getTable() {
+            return table;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getLastPublicType() {
+            return lastPublicType;
+        }
+
+        public int getLastPublicKey() {
+            return lastPublicKey;
+        }
+
+        public StringPoolReader getTypeStrings() {
+            return typeStrings;
+        }
+
+        public StringPoolReader getKeyStrings() {
+            return keyStrings;
+        }
+
+        // All the child chunks in file order, including the string pools and chunks of unknown types
+        public List<ChunkReader> getChunks() {
+            return Collections.unmodifiableList(chunks);
+        }
+
+        public List<TypeSpecReader> getTypeSpecs() {
+            List<TypeSpecReader> ret = new ArrayList<>();
+            for (ChunkReader chunk : chunks) {
+                if (chunk instanceof TypeSpecReader)
+                    ret.add((TypeSpecReader) chunk);
+            }
+            return ret;
+        }
+
+        public List<TypeReader> getTypes() {
+            List<TypeReader> ret = new ArrayList<>();
+            for (ChunkReader chunk : chunks) {
+                if (chunk instanceof TypeReader)
+                    ret.add((TypeReader) chunk);
+            }
+            return ret;
+        }
+
+        public ResTable.Package toPackage() {
+            ResTable.Package ret = new ResTable.Package(id, name);
+            for (ChunkReader chunk : chunks) {
+                if (chunk instanceof TypeSpecReader)
+                    ret.addType(((TypeSpecReader) chunk).toTypeSpec());
+                else if (chunk instanceof TypeReader)
+                    ret.addType(((TypeReader) chunk).toType());
+            }
+            return ret;
+        }
+
+    }
+
+    public static class TypeSpecReader extends ChunkReader {
+
+        private final PackageReader pkg;
+        private final int id;
+        private final int entryCount;
+
+        TypeSpecReader(PackageReader pkg, int offset) throws IOException {
+            super(pkg.data, offset);
+            this.pkg = pkg;
+            id = data.get(offset + 8) & 0xff;
+            entryCount = data.getInt(offset + 12);
+            if (entryCount < 0 || getHeaderSize() + entryCount * 4L > getSize())
+                throw new IOException("malformed type spec at " + offset);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return pkg.getTypeStrings().getString(id - 1);
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public int getFlags(int entryId) {
+            return data.getInt(offset + getHeaderSize() + entryId * 4);
+        }
+
+        public ResTable.TypeSpec toTypeSpec() {
+            int[] flags = new int[entryCount];
+            for (int i = 0; i < entryCount; i++)
+                flags[i] = getFlags(i);
+            return new ResTable.TypeSpec(id, getName(), flags);
+        }
+
+    }
+
+    public static class TypeReader extends ChunkReader {
+
+        private final PackageReader pkg;
+        private final int id;
+        private final int typeFlags;
+        private final int entryCount;
+        private final int entriesStart;
+
+        TypeReader(PackageReader pkg, int offset) throws IOException {
+            super(pkg.data, offset);
+            this.pkg = pkg;
+            id = data.get(offset + 8) & 0xff;
+            typeFlags = data.get(offset + 9) & 0xff;
+            entryCount = data.getInt(offset + 12);
+            entriesStart = offset + data.getInt(offset + 16);
+            if (entryCount < 0 || entriesStart > offset + getSize())
+                throw new IOException("malformed type at " + offset);
+        }
+
+        public PackageReader getPackage() {
+            return pkg;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getTypeFlags() {
+            return typeFlags;
+        }
+
+        public ResTable.Config getConfig() {
+            ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            buf.position(offset + 20);
+            return ResTable.Config.read(buf);
+        }
+
+        // Number of entries in the offset table; for sparse types this is the number of entries present
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        // Start of the entry data, relative to the start of the chunk
+        public int getEntriesStart() {
+            return entriesStart - offset;
+        }
+
+        // The IDs of all the entries present in the type, in ascending order
+        public int[] getEntryIds() {
+            int[] ret = new int[entryCount];
+            int n = 0;
+            for (int i = 0; i < entryCount; i++) {
+                if ((typeFlags & ResTable.Type.FLAG_SPARSE) != 0)
+                    ret[n++] = getSparseEntryId(i);
+                else if (getEntryOffset(i) != -1)
+                    ret[n++] = i;
+            }
+            return Arrays.copyOf(ret, n);
+        }
+
+        // Size of the serialized entry at the given offset from the start of the entry data
+        public int getEntrySize(int entryOffset) {
+            int pos = entriesStart + entryOffset;
+            int size = data.getShort(pos) & 0xffff;
+            int flags = data.getShort(pos + 2) & 0xffff;
+            if ((flags & ResTable.EntryBase.FLAG_COMPACT) != 0)
+                return 8;
+            if ((flags & ResTable.EntryBase.FLAG_COMPLEX) != 0) {
+                int count = data.getInt(pos + 12);
+                int itemPos = pos + size;
+                for (int i = 0; i < count; i++)
+                    itemPos += 4 + (data.getShort(itemPos + 4) & 0xffff);
+                return itemPos - pos;
+            }
+            return size + (data.getShort(pos + size) & 0xffff);
+        }
+
+        private int getOffsetTableStart() {
+            return offset + getHeaderSize();
+        }
+
+        private int getSparseEntryId(int index) {
+            return data.getShort(getOffsetTableStart() + index * 4) & 0xffff;
+        }
+
+        // Returns the offset of the entry from the start of the entry data, or -1 if the type has no such entry
+        public int getEntryOffset(int entryId) {
+            int table = getOffsetTableStart();
+            if ((typeFlags & ResTable.Type.FLAG_SPARSE) != 0) {
+                int lo = 0, hi = entryCount - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    int midId = getSparseEntryId(mid);
+                    if (midId < entryId)
+                        lo = mid + 1;
+                    else if (midId > entryId)
+                        hi = mid - 1;
+                    else
+                        return (data.getShort(table + mid * 4 + 2) & 0xffff) * 4;
+                }
+                return -1;
+            }
+            if (entryId < 0 || entryId >= entryCount)
+                return -1;
+            if ((typeFlags & ResTable.Type.FLAG_OFFSET16) != 0) {
+                int off = data.getShort(table + entryId * 2) & 0xffff;
+                return off == 0xffff ? -1 : off * 4;
+            }
+            return data.getInt(table + entryId * 4);
+        }
+
+        // Returns the index of the entry's key in the key string pool, or -1 if the type has no such entry
+        public int getEntryKeyIndex(int entryId) {
+            int off = getEntryOffset(entryId);
+            if (off == -1)
+                return -1;
+            int pos = entriesStart + off;
+            if ((data.getShort(pos + 2) & ResTable.EntryBase.FLAG_COMPACT) != 0)
+                return data.getShort(pos) & 0xffff;
+            return data.getInt(pos + 4);
+        }
+
+        public ResTable.EntryBase getEntry(int entryId) {
+            int off = getEntryOffset(entryId);
+            if (off == -1)
+                return null;
+            return readEntry(entryId, entriesStart + off);
+        }
+
+        private ResTable.EntryBase readEntry(int entryId, int pos) {
+            StringPoolReader keys = pkg.getKeyStrings();
+            StringPoolReader globals = pkg.getTable().getGlobalStringPool();
+            int size = data.getShort(pos) & 0xffff;
+            int flags = data.getShort(pos + 2) & 0xffff;
+            boolean isPublic = (flags & ResTable.EntryBase.FLAG_PUBLIC) != 0;
+            ResTable.EntryBase ret;
+            if ((flags & ResTable.EntryBase.FLAG_COMPACT) != 0) {
+                // the size field holds the key index and the high byte of the flags the value's type
+                ResValue value = createValue(globals, flags >>> 8, data.getInt(pos + 4));
+                ret = new ResTable.Entry(entryId, keys.getString(size), value, isPublic);
+                flags &= 0xff & ~ResTable.EntryBase.FLAG_COMPACT;
+            } else if ((flags & ResTable.EntryBase.FLAG_COMPLEX) != 0) {
+                String key = keys.getString(data.getInt(pos + 4));
+                int parent = data.getInt(pos + 8);
+                int count = data.getInt(pos + 12);
+                List<ResTable.MapEntry.Entry> values = new ArrayList<>(count);
+                int itemPos = pos + size;
+                for (int i = 0; i < count; i++) {
+                    int name = data.getInt(itemPos);
+                    int valueSize = data.getShort(itemPos + 4) & 0xffff;
+                    values.add(new ResTable.MapEntry.Entry(name, createValue(globals,
+                            data.get(itemPos + 7) & 0xff, data.getInt(itemPos + 8))));
+                    itemPos += 4 + valueSize;
+                }
+                ResTable.MapEntry mapEntry = new ResTable.MapEntry(entryId, key, values, isPublic);
+                mapEntry.setParent(parent);
+                ret = mapEntry;
+            } else {
+                String key = keys.getString(data.getInt(pos + 4));
+                int valuePos = pos + size;
+                ResValue value = createValue(globals, data.get(valuePos + 3) & 0xff, data.getInt(valuePos + 4));
+                ret = new ResTable.Entry(entryId, key, value, isPublic);
+            }
+            ret.flags = (short) flags;
+            return ret;
+        }
+
+        // Iterates over the entries present in the type in the order of their IDs, decoding them on the fly
+        public Iterable<ResTable.EntryBase> getEntries() {
+            return new Iterable<ResTable.EntryBase>() {
+                @Override
+                public Iterator<ResTable.EntryBase> iterator() {
+                    return new EntryIterator();
+                }
+            };
+        }
+
+        public ResTable.Type toType() {
+            ResTable.Type ret = new ResTable.Type(id, getConfig());
+            for (ResTable.EntryBase entry : getEntries())
+                ret.addEntry(entry);
+            return ret;
+        }
+
+        private class EntryIterator implements Iterator<ResTable.EntryBase> {
+
+            private int index = 0;
+            private int nextId = -1;
+
+            private void findNext() {
+                if (nextId != -1)
+                    return;
+                while (index < entryCount) {
+                    int i = index++;
+                    int entryId = ((typeFlags & ResTable.Type.FLAG_SPARSE) != 0 ? getSparseEntryId(i) : i);
+                    if ((typeFlags & ResTable.Type.FLAG_SPARSE) != 0 || getEntryOffset(entryId) != -1) {
+                        nextId = entryId;
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                findNext();
+                return nextId != -1;
+            }
+
+            @Override
+            public ResTable.EntryBase next() {
+                findNext();
+                if (nextId == -1)
+                    throw new NoSuchElementException();
+                int entryId = nextId;
+                nextId = -1;
+                return getEntry(entryId);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        }
+
+    }
+
+}
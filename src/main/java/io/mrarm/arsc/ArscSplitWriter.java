@@ -0,0 +1,76 @@
+package io.mrarm.arsc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+import io.mrarm.arsc.chunks.ResChunk;
+import io.mrarm.arsc.chunks.ResTable;
+
+// Writes a table as a base table plus one table for each split of its configurations, e.g. for language or
+// density split APKs. Everything the tables have in common is prepared once, on the first write; see
+// ResTable.SplitWriter for what ends up in which table. Closing it deletes the files the string pools may
+// have spilled into.
+public class ArscSplitWriter implements Closeable {
+
+    // The index of the base table, for the write methods
+    public static final int BASE = -1;
+
+    private final ArscWriter settings;
+    private final ResTable.SplitWriter splitWriter;
+    private DataWritePreparer preparer;
+
+    public ArscSplitWriter(ResTable table, List<? extends Collection<ResTable.Config>> splits,
+                           ArscWriter settings) {
+        this.settings = new ArscWriter(table, settings);
+        this.splitWriter = new ResTable.SplitWriter(table, splits);
+    }
+
+    public ArscSplitWriter(ResTable table, List<? extends Collection<ResTable.Config>> splits) {
+        this(table, splits, new ArscWriter(table));
+    }
+
+    public int getSplitCount() {
+        return splitWriter.getSplitCount();
+    }
+
+    private ResChunk.Writer getWriter(int split) throws IOException {
+        if (preparer == null) {
+            WriteListener listener = settings.getWriteListener();
+            long start = listener != null ? System.nanoTime() : 0;
+            preparer = settings.createPreparer();
+            splitWriter.prepare(preparer);
+            if (listener != null)
+                listener.onPrepared(System.nanoTime() - start);
+        }
+        return split == BASE ? splitWriter.getBaseWriter() : splitWriter.getSplitWriter(split);
+    }
+
+    public void write(int split, OutputStream outputStream) throws IOException {
+        settings.write(getWriter(split), outputStream);
+    }
+
+    public void write(int split, Path path) throws IOException {
+        settings.write(getWriter(split), path);
+    }
+
+    public StoredZipEntry writeZipEntry(int split, SeekableByteChannel channel, String name, int alignment)
+            throws IOException {
+        return settings.writeZipEntry(getWriter(split), channel, name, alignment);
+    }
+
+    public StoredZipEntry writeZipEntry(int split, SeekableByteChannel channel, String name) throws IOException {
+        return writeZipEntry(split, channel, name, StoredZipEntry.DEFAULT_ALIGNMENT);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (preparer != null)
+            preparer.closeStringPools();
+    }
+
+}
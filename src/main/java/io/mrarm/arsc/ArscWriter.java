@@ -2,23 +2,233 @@ package io.mrarm.arsc;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
 
 import io.mrarm.arsc.chunks.ResChunk;
 
 public class ArscWriter {
 
     private ResChunk.RootChunk rootChunk;
+    private ExecutorService executor;
+    private float sparseTypeThreshold;
+    private boolean offset16Enabled;
+    private boolean compactEntriesEnabled;
+    private boolean entryDeduplicationEnabled;
+    private TypeChunkCache typeChunkCache;
+    private WriteListener writeListener;
+    private StringEncodingCache stringEncodingCache;
+    private long stringPoolMemoryLimit;
+    private Path stringPoolSpillDirectory;
+    // cleared by ArscBatchWriter, which trims the cache once after all the tables are written
+    boolean evictCacheAfterWrite = true;
 
     public ArscWriter(ResChunk.RootChunk root) {
         rootChunk = root;
     }
 
-    public void write(OutputStream outputStream) throws IOException {
-        ResChunk.Writer rootChunkWriter = rootChunk.createWriter();
+    // Creates a writer for another table, with the same settings as the given one
+    public ArscWriter(ResChunk.RootChunk root, ArscWriter settings) {
+        rootChunk = root;
+        executor = settings.executor;
+        sparseTypeThreshold = settings.sparseTypeThreshold;
+        offset16Enabled = settings.offset16Enabled;
+        compactEntriesEnabled = settings.compactEntriesEnabled;
+        entryDeduplicationEnabled = settings.entryDeduplicationEnabled;
+        typeChunkCache = settings.typeChunkCache;
+        writeListener = settings.writeListener;
+        stringEncodingCache = settings.stringEncodingCache;
+        stringPoolMemoryLimit = settings.stringPoolMemoryLimit;
+        stringPoolSpillDirectory = settings.stringPoolSpillDirectory;
+    }
+
+    // Prepares the packages and types in parallel on the given executor. The chunks are also serialized in
+    // parallel when writing to a Path, as the output is then addressable by position.
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setSparseTypeThreshold(float threshold) {
+        this.sparseTypeThreshold = threshold;
+    }
+
+    public void setOffset16Enabled(boolean enabled) {
+        this.offset16Enabled = enabled;
+    }
+
+    public void setCompactEntriesEnabled(boolean enabled) {
+        this.compactEntriesEnabled = enabled;
+    }
+
+    public void setEntryDeduplicationEnabled(boolean enabled) {
+        this.entryDeduplicationEnabled = enabled;
+    }
+
+    // Splices unchanged Type chunks in from the cache; the cache is trimmed after every write
+    public void setTypeChunkCache(TypeChunkCache cache) {
+        this.typeChunkCache = cache;
+    }
+
+    public void setWriteListener(WriteListener listener) {
+        this.writeListener = listener;
+    }
+
+    WriteListener getWriteListener() {
+        return writeListener;
+    }
+
+    // Reuses the encoded form of strings that the pools of other tables written with the same cache contain
+    public void setStringEncodingCache(StringEncodingCache cache) {
+        this.stringEncodingCache = cache;
+    }
+
+    // Keeps at most memoryLimit bytes of each string pool in memory while writing, the rest of the pool spills
+    // into a temporary file in the directory
+    public void setStringPoolSpilling(long memoryLimit, Path directory) {
+        this.stringPoolMemoryLimit = memoryLimit;
+        this.stringPoolSpillDirectory = directory;
+    }
+
+    DataWritePreparer createPreparer() {
         DataWritePreparer preparer = new DataWritePreparer();
+        preparer.setExecutor(executor);
+        preparer.setSparseTypeThreshold(sparseTypeThreshold);
+        preparer.setOffset16Enabled(offset16Enabled);
+        preparer.setCompactEntriesEnabled(compactEntriesEnabled);
+        preparer.setEntryDeduplicationEnabled(entryDeduplicationEnabled);
+        preparer.setTypeChunkCache(typeChunkCache);
+        preparer.setWriteListener(writeListener);
+        preparer.setStringEncodingCache(stringEncodingCache);
+        preparer.setStringPoolSpilling(stringPoolMemoryLimit, stringPoolSpillDirectory);
+        return preparer;
+    }
+
+    private ResChunk.Writer prepareRootChunk(DataWritePreparer preparer) throws IOException {
+        long start = writeListener != null ? System.nanoTime() : 0;
+        ResChunk.Writer rootChunkWriter = rootChunk.createWriter();
         rootChunkWriter.prepare(preparer);
+        if (writeListener != null)
+            writeListener.onPrepared(System.nanoTime() - start);
+        return rootChunkWriter;
+    }
+
+    public void write(OutputStream outputStream) throws IOException {
+        DataWritePreparer preparer = createPreparer();
+        try {
+            write(prepareRootChunk(preparer), outputStream);
+        } finally {
+            preparer.closeStringPools();
+        }
+    }
+
+    public void write(WritableByteChannel channel) throws IOException {
+        DataWritePreparer preparer = createPreparer();
+        try {
+            write(prepareRootChunk(preparer), channel);
+        } finally {
+            preparer.closeStringPools();
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        DataWritePreparer preparer = createPreparer();
+        try {
+            write(prepareRootChunk(preparer), path);
+        } finally {
+            preparer.closeStringPools();
+        }
+    }
+
+    // Writes the table as an uncompressed entry of a zip archive at the current position of the channel, with
+    // the data aligned as Android requires. The size is known after prepare, so the local header is written
+    // up front and only its CRC, which is computed as the data passes through, is patched in afterwards. The
+    // channel is left at the end of the entry.
+    public StoredZipEntry writeZipEntry(SeekableByteChannel channel, String name, int alignment)
+            throws IOException {
+        DataWritePreparer preparer = createPreparer();
+        try {
+            return writeZipEntry(prepareRootChunk(preparer), channel, name, alignment);
+        } finally {
+            preparer.closeStringPools();
+        }
+    }
+
+    public StoredZipEntry writeZipEntry(SeekableByteChannel channel, String name) throws IOException {
+        return writeZipEntry(channel, name, StoredZipEntry.DEFAULT_ALIGNMENT);
+    }
+
+    // The following write an already prepared root chunk
+
+    void write(ResChunk.Writer rootChunkWriter, OutputStream outputStream) throws IOException {
+        long start = writeListener != null ? System.nanoTime() : 0;
         DataWriter writer = new DataWriter(outputStream);
         rootChunkWriter.write(writer);
+        writer.flush();
+        onWritten(rootChunkWriter, start);
+        if (evictCacheAfterWrite)
+            evictCache();
+    }
+
+    void write(ResChunk.Writer rootChunkWriter, WritableByteChannel channel) throws IOException {
+        long start = writeListener != null ? System.nanoTime() : 0;
+        DataWriter writer = new DataWriter(channel);
+        rootChunkWriter.write(writer);
+        writer.flush();
+        onWritten(rootChunkWriter, start);
+        if (evictCacheAfterWrite)
+            evictCache();
+    }
+
+    void write(ResChunk.Writer rootChunkWriter, Path path) throws IOException {
+        long start = writeListener != null ? System.nanoTime() : 0;
+        int size = rootChunkWriter.getTotalSize();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the whole layout is known after prepare, so map the file at its final size and let the chunks
+            // be written straight into it
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            DataWriter writer = new DataWriter(buffer);
+            rootChunkWriter.write(writer);
+            if (buffer.position() != size)
+                throw new IOException("wrote " + buffer.position() + " bytes, expected " + size);
+        }
+        onWritten(rootChunkWriter, start);
+        if (evictCacheAfterWrite)
+            evictCache();
+    }
+
+    StoredZipEntry writeZipEntry(ResChunk.Writer rootChunkWriter, SeekableByteChannel channel, String name,
+                                 int alignment) throws IOException {
+        long start = writeListener != null ? System.nanoTime() : 0;
+        StoredZipEntry entry = new StoredZipEntry(name, channel.position(), alignment);
+        entry.writeLocalHeader(channel, rootChunkWriter.getTotalSize());
+        StoredZipEntry.CrcChannel crcChannel = new StoredZipEntry.CrcChannel(channel);
+        DataWriter writer = new DataWriter(crcChannel);
+        rootChunkWriter.write(writer);
+        writer.flush();
+        long written = channel.position() - entry.getDataOffset();
+        if (written != entry.getSize())
+            throw new IOException("wrote " + written + " bytes, expected " + entry.getSize());
+        entry.patchCrc(channel, crcChannel.getCrc());
+        onWritten(rootChunkWriter, start);
+        if (evictCacheAfterWrite)
+            evictCache();
+        return entry;
+    }
+
+    private void onWritten(ResChunk.Writer rootChunkWriter, long start) {
+        if (writeListener != null)
+            writeListener.onWritten(System.nanoTime() - start, rootChunkWriter.getTotalSize());
+    }
+
+    void evictCache() throws IOException {
+        if (typeChunkCache != null)
+            typeChunkCache.evict();
     }
 
 }
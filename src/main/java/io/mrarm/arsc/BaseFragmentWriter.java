@@ -1,11 +1,13 @@
 package io.mrarm.arsc;
 
+import java.io.IOException;
+
 public abstract class BaseFragmentWriter implements FragmentWriter {
 
     private int cachedTotalSize = -1;
 
     @Override
-    public void prepare(DataWritePreparer preparer) {
+    public void prepare(DataWritePreparer preparer) throws IOException {
         // Stub as many classes don't need to implement this
     }
 
@@ -18,9 +20,10 @@ public abstract class BaseFragmentWriter implements FragmentWriter {
     @Override
     public int getTotalSize() {
         if (cachedTotalSize == -1) {
-            cachedTotalSize = calculateTotalSize();
-            if (cachedTotalSize % 4 != 0)
-                System.out.println("error: invalid total size: " + this);
+            int size = calculateTotalSize();
+            if (size % 4 != 0)
+                throw new IllegalStateException("the size of " + this + " is not aligned to 4 bytes: " + size);
+            cachedTotalSize = size;
         }
         return cachedTotalSize;
     }
@@ -1,8 +1,46 @@
 package io.mrarm.arsc;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 public class DataWritePreparer {
 
     private StringPoolBuilder globalStringPool;
+    private ExecutorService executor;
+    private float sparseTypeThreshold;
+    private boolean offset16Enabled;
+    private boolean compactEntriesEnabled;
+    private boolean entryDeduplicationEnabled;
+    private TypeChunkCache typeChunkCache;
+    private WriteListener writeListener;
+    private StringEncodingCache stringEncodingCache;
+    private long stringPoolMemoryLimit;
+    private Path stringPoolSpillDirectory;
+    // the pools that may have spilled into files, shared with the child preparers
+    private final List<StringPoolBuilder> spillingPools;
+
+    public DataWritePreparer() {
+        spillingPools = Collections.synchronizedList(new ArrayList<StringPoolBuilder>());
+    }
+
+    // Creates a preparer with the same settings as the parent one, but without the global string pool.
+    public DataWritePreparer(DataWritePreparer parent) {
+        this.executor = parent.executor;
+        this.sparseTypeThreshold = parent.sparseTypeThreshold;
+        this.offset16Enabled = parent.offset16Enabled;
+        this.compactEntriesEnabled = parent.compactEntriesEnabled;
+        this.entryDeduplicationEnabled = parent.entryDeduplicationEnabled;
+        this.typeChunkCache = parent.typeChunkCache;
+        this.writeListener = parent.writeListener;
+        this.stringEncodingCache = parent.stringEncodingCache;
+        this.stringPoolMemoryLimit = parent.stringPoolMemoryLimit;
+        this.stringPoolSpillDirectory = parent.stringPoolSpillDirectory;
+        this.spillingPools = parent.spillingPools;
+    }
 
     public void setGlobalStringPool(StringPoolBuilder pool) {
         this.globalStringPool = pool;
@@ -12,4 +50,113 @@ public class DataWritePreparer {
         return globalStringPool.appendString(text);
     }
 
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    // Types where less than this fraction of the entry IDs up to the highest one is present are written in the
+    // sparse format, which needs API 26. 0 (the default) disables it.
+    public void setSparseTypeThreshold(float threshold) {
+        this.sparseTypeThreshold = threshold;
+    }
+
+    public float getSparseTypeThreshold() {
+        return sparseTypeThreshold;
+    }
+
+    // Allows writing the entry offsets of types whose entry data is small enough as 16-bit values. Older
+    // platform versions can't read such types, so this is disabled by default.
+    public void setOffset16Enabled(boolean enabled) {
+        this.offset16Enabled = enabled;
+    }
+
+    public boolean isOffset16Enabled() {
+        return offset16Enabled;
+    }
+
+    // Allows writing simple entries in the 8 byte compact form, which older platform versions can't read either
+    public void setCompactEntriesEnabled(boolean enabled) {
+        this.compactEntriesEnabled = enabled;
+    }
+
+    public boolean isCompactEntriesEnabled() {
+        return compactEntriesEnabled;
+    }
+
+    // Makes entries of a type that serialize to identical bytes share a single copy of the data
+    public void setEntryDeduplicationEnabled(boolean enabled) {
+        this.entryDeduplicationEnabled = enabled;
+    }
+
+    public boolean isEntryDeduplicationEnabled() {
+        return entryDeduplicationEnabled;
+    }
+
+    // Reuses the serialized form of Type chunks whose content hasn't changed since it was stored in the cache
+    public void setTypeChunkCache(TypeChunkCache cache) {
+        this.typeChunkCache = cache;
+    }
+
+    public TypeChunkCache getTypeChunkCache() {
+        return typeChunkCache;
+    }
+
+    // Null unless the timings and statistics of the write are being collected
+    public void setWriteListener(WriteListener listener) {
+        this.writeListener = listener;
+    }
+
+    public WriteListener getWriteListener() {
+        return writeListener;
+    }
+
+    // Shared with the preparers of other tables written at the same time, null if there's none
+    public void setStringEncodingCache(StringEncodingCache cache) {
+        this.stringEncodingCache = cache;
+    }
+
+    public StringEncodingCache getStringEncodingCache() {
+        return stringEncodingCache;
+    }
+
+    // Keeps at most memoryLimit bytes of the data of each string pool in memory, the rest spills into temporary
+    // files in the directory until closeStringPools is called. 0 (the default) keeps it all in memory.
+    public void setStringPoolSpilling(long memoryLimit, Path directory) {
+        this.stringPoolMemoryLimit = memoryLimit;
+        this.stringPoolSpillDirectory = directory;
+    }
+
+    public long getStringPoolMemoryLimit() {
+        return stringPoolMemoryLimit;
+    }
+
+    public Path getStringPoolSpillDirectory() {
+        return stringPoolSpillDirectory;
+    }
+
+    // Creates a builder for a string pool of the chunks being prepared, using the string encoding cache and
+    // spilling settings
+    public StringPoolBuilder createStringPool(boolean utf8, boolean intern) {
+        StringPoolBuilder ret = new StringPoolBuilder(utf8, intern);
+        ret.setEncodingCache(stringEncodingCache);
+        if (stringPoolMemoryLimit > 0) {
+            ret.setSpilling(stringPoolMemoryLimit, stringPoolSpillDirectory);
+            spillingPools.add(ret);
+        }
+        return ret;
+    }
+
+    // Deletes the files the string pools spilled into, once the chunks have been written
+    public void closeStringPools() throws IOException {
+        synchronized (spillingPools) {
+            for (StringPoolBuilder pool : spillingPools)
+                pool.close();
+            spillingPools.clear();
+        }
+    }
+
 }
@@ -2,33 +2,117 @@ package io.mrarm.arsc;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 public class DataWriter {
 
-    private OutputStream output;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // null if the data is written straight into the buffer and never flushed
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
 
     DataWriter(OutputStream output) {
-        this.output = output;
+        this(Channels.newChannel(output));
+    }
+
+    public DataWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public DataWriter(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void ensureAvailable(int bytes) throws IOException {
+        if (buffer.remaining() < bytes && channel != null)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    public void flush() throws IOException {
+        if (channel != null && buffer.position() > 0)
+            flushBuffer();
+    }
+
+    public boolean canSlice() {
+        return channel == null;
+    }
+
+    // Reserves the next length bytes and returns a writer for just that range, so that it can be filled
+    // independently (e.g. from another thread) while this writer carries on after it.
+    public DataWriter slice(int length) {
+        if (channel != null)
+            throw new UnsupportedOperationException("slicing is only supported for buffer backed writers");
+        ByteBuffer range = buffer.duplicate();
+        range.limit(range.position() + length);
+        buffer.position(buffer.position() + length);
+        return new DataWriter(range.slice());
     }
 
     public void write(byte[] data) throws IOException {
-        output.write(data);
+        write(data, 0, data.length);
+    }
+
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (channel != null && len > buffer.remaining()) {
+            flushBuffer();
+            if (len >= buffer.capacity()) {
+                // too big to be worth copying into the buffer
+                ByteBuffer wrapped = ByteBuffer.wrap(data, off, len);
+                while (wrapped.hasRemaining())
+                    channel.write(wrapped);
+                return;
+            }
+        }
+        buffer.put(data, off, len);
     }
 
     public void writeByte(int v) throws IOException {
-        output.write(v & 0xff);
+        ensureAvailable(1);
+        buffer.put((byte) v);
     }
 
     public void writeShort(int v) throws IOException {
-        output.write(v & 0xff);
-        output.write((v >>> 8) & 0xff);
+        ensureAvailable(2);
+        buffer.putShort((short) v);
     }
 
     public void writeInt(int v) throws IOException {
-        output.write(v & 0xff);
-        output.write((v >>> 8) & 0xff);
-        output.write((v >>> 16) & 0xff);
-        output.write((v >>> 24) & 0xff);
+        ensureAvailable(4);
+        buffer.putInt(v);
+    }
+
+    public void writeInts(int[] data) throws IOException {
+        writeInts(data, 0, data.length);
+    }
+
+    public void writeInts(int[] data, int off, int len) throws IOException {
+        while (len > 0) {
+            ensureAvailable(4);
+            int n = Math.min(len, buffer.remaining() / 4);
+            if (n == 0) // only possible when there's no channel to flush to
+                n = len;
+            IntBuffer view = buffer.asIntBuffer();
+            view.put(data, off, n);
+            buffer.position(buffer.position() + n * 4);
+            off += n;
+            len -= n;
+        }
     }
 
 
@@ -4,7 +4,7 @@ import java.io.IOException;
 
 public interface FragmentWriter {
 
-    void prepare(DataWritePreparer preparer);
+    void prepare(DataWritePreparer preparer) throws IOException;
 
     void write(DataWriter writer) throws IOException;
 
@@ -0,0 +1,298 @@
+package io.mrarm.arsc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+import io.mrarm.arsc.util.IntIntMap;
+import io.mrarm.arsc.util.ObjectIntMap;
+
+// Assigns the entry ids of a package by the entries' keys, so that callers don't have to pick them. The ids of a
+// type are dense, and the keys present in the most configs get the lowest ids, so that the offset tables of the
+// configs that only have a few of them stay short. Ids can be kept stable between builds by loading the mapping
+// saved by the previous build, in the format of aapt2's --stable-ids: the keys in it keep their ids, the ids of
+// keys that are gone are given to new ones first and the remaining new keys are appended. Every type needs its
+// TypeSpec, which names the type in the mapping.
+public class ResourceIdAllocator {
+
+    private static final int MAX_ENTRY_ID = 0xFFFF;
+
+    private final ResTable.Package pkg;
+    // references by type name and key, as loaded from a mapping and as assigned by allocate()
+    private final Map<String, ObjectIntMap<String>> loadedReferences = new HashMap<>();
+    private final Map<String, ObjectIntMap<String>> references = new HashMap<>();
+
+    public ResourceIdAllocator(ResTable.Package pkg) {
+        this.pkg = pkg;
+    }
+
+    // Loads a mapping written by save() or aapt2. Lines of other packages are ignored, as are references whose
+    // type id no longer matches the TypeSpec of their type.
+    public void load(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            int sep = line.indexOf('=');
+            int pkgSep = line.indexOf(':');
+            int typeSep = line.indexOf('/', pkgSep + 1);
+            if (sep == -1 || pkgSep == -1 || typeSep == -1 || typeSep > sep)
+                throw new IOException("malformed mapping at line " + (i + 1));
+            String value = line.substring(sep + 1).trim();
+            int ref;
+            try {
+                if (!value.startsWith("0x"))
+                    throw new NumberFormatException();
+                ref = Integer.parseUnsignedInt(value.substring(2), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed id at line " + (i + 1));
+            }
+            if (!line.substring(0, pkgSep).trim().equals(pkg.name) || (ref >>> 24) != pkg.id)
+                continue;
+            String type = line.substring(pkgSep + 1, typeSep).trim();
+            String key = line.substring(typeSep + 1, sep).trim();
+            loadedReferences.computeIfAbsent(type, k -> new ObjectIntMap<>()).put(key, ref);
+        }
+    }
+
+    // Saves the references assigned by the last allocate(), ordered by id
+    public void save(Path path) throws IOException {
+        // references are unique within a package
+        TreeMap<Long, String> lines = new TreeMap<>();
+        for (Map.Entry<String, ObjectIntMap<String>> type : references.entrySet()) {
+            ObjectIntMap<String> keys = type.getValue();
+            for (int slot = 0; slot < keys.getCapacity(); slot++) {
+                if (keys.getKeyAt(slot) == null)
+                    continue;
+                long ref = keys.getValueAt(slot) & 0xffffffffL;
+                lines.put(ref, pkg.name + ":" + type.getKey() + "/" + keys.getKeyAt(slot) + " = 0x" +
+                        String.format("%08x", ref));
+            }
+        }
+        Files.write(path, lines.values(), StandardCharsets.UTF_8);
+    }
+
+    // Returns the reference assigned to the key by the last allocate(), or 0 if there's none
+    public int getReference(String type, String key) {
+        ObjectIntMap<String> keys = references.get(type);
+        return keys != null ? keys.get(key, 0) : 0;
+    }
+
+    // Assigns the ids of all the entries of the package, and resizes the flags of the TypeSpecs to match. The
+    // flags of a key are carried over from the id its entries had before if that id was its own; keys that shared
+    // their old id with other keys (e.g. a placeholder 0) get no flags. References within the package to the old
+    // ids, in values, parents and names of map entries, are updated to the new ones. A reference to an old id
+    // several keys shared can't be updated, and is rejected before anything is changed. Entries of a type with an
+    // entry source can't be renumbered, their ids and references are kept as they are.
+    public void allocate() {
+        Map<Integer, ResTable.TypeSpec> specs = new HashMap<>();
+        Map<Integer, List<ResTable.Type>> types = new HashMap<>();
+        for (ResTable.TypeBase type : pkg.getTypes()) {
+            if (type instanceof ResTable.TypeSpec) {
+                specs.put(((ResTable.TypeSpec) type).id, (ResTable.TypeSpec) type);
+            } else {
+                ResTable.Type t = (ResTable.Type) type;
+                types.computeIfAbsent(t.id, k -> new ArrayList<>()).add(t);
+            }
+        }
+        Map<Integer, TypeAllocation> allocations = new HashMap<>();
+        for (Map.Entry<Integer, List<ResTable.Type>> type : types.entrySet()) {
+            ResTable.TypeSpec spec = specs.get(type.getKey());
+            if (spec == null)
+                throw new IllegalArgumentException("type " + type.getKey() + " has no TypeSpec");
+            allocations.put(type.getKey(), allocate(spec, type.getValue()));
+        }
+        // check the references first, so that a table with one that can't be updated is left as it was
+        remapReferences(allocations, false);
+        references.clear();
+        for (TypeAllocation allocation : allocations.values()) {
+            allocation.apply();
+            references.put(allocation.spec.name, allocation.refs);
+        }
+        remapReferences(allocations, true);
+    }
+
+    private TypeAllocation allocate(ResTable.TypeSpec spec, List<ResTable.Type> types) {
+        TypeAllocation ret = new TypeAllocation(spec, types);
+        // the keys in the order they were first seen, with the number of configs they're in and their old ids
+        List<String> keys = ret.keys;
+        ObjectIntMap<String> keyIndices = new ObjectIntMap<>();
+        ObjectIntMap<String> configCounts = new ObjectIntMap<>();
+        // -1 if the entries of the key had different ids
+        ObjectIntMap<String> oldIds = new ObjectIntMap<>();
+        ObjectIntMap<String> ids = ret.ids;
+        BitSet usedIds = new BitSet();
+        for (ResTable.Type type : types) {
+            Iterable<? extends ResTable.EntryBase> entries = type.getEntrySource() != null ? type.getEntrySource() :
+                    type.entries != null ? type.entries : Collections.<ResTable.EntryBase>emptyList();
+            for (ResTable.EntryBase entry : entries) {
+                int count = configCounts.get(entry.key, 0);
+                if (count == 0) {
+                    keyIndices.put(entry.key, keys.size());
+                    keys.add(entry.key);
+                    oldIds.put(entry.key, entry.id);
+                } else if (oldIds.get(entry.key, -1) != entry.id) {
+                    oldIds.put(entry.key, -1);
+                }
+                configCounts.put(entry.key, count + 1);
+                int keyIndex = keyIndices.get(entry.key, 0);
+                int oldIdKey = ret.oldIdKeys.get(entry.id, -1);
+                if (oldIdKey == -1)
+                    ret.oldIdKeys.put(entry.id, keyIndex);
+                else if (oldIdKey != keyIndex)
+                    ret.oldIdKeys.put(entry.id, TypeAllocation.SHARED_ID);
+                if (type.getEntrySource() != null) {
+                    int id = ids.putIfAbsent(entry.key, entry.id);
+                    if (id != entry.id)
+                        throw new IllegalArgumentException("streamed entry " + entry.key + " of type " + spec.name +
+                                " has different ids in different configs");
+                    usedIds.set(id);
+                }
+            }
+        }
+
+        ObjectIntMap<String> loaded = loadedReferences.get(spec.name);
+        int typeRef = ResTable.makeReference(pkg.id, spec.id, 0);
+        List<String> newKeys = new ArrayList<>();
+        for (String key : keys) {
+            if (ids.containsKey(key))
+                continue;
+            int ref = loaded != null ? loaded.get(key, 0) : 0;
+            // a reference from an older layout of the package, or an id some other key got first
+            if (ref == 0 || (ref & ~MAX_ENTRY_ID) != typeRef || usedIds.get(ref & MAX_ENTRY_ID)) {
+                newKeys.add(key);
+                continue;
+            }
+            ids.put(key, ref & MAX_ENTRY_ID);
+            usedIds.set(ref & MAX_ENTRY_ID);
+        }
+        // the sort is stable, so keys in as many configs keep the order they were added in
+        newKeys.sort((a, b) -> Integer.compare(configCounts.get(b, 0), configCounts.get(a, 0)));
+        int nextId = 0;
+        for (String key : newKeys) {
+            nextId = usedIds.nextClearBit(nextId);
+            if (nextId > MAX_ENTRY_ID)
+                throw new IllegalArgumentException("type " + spec.name + " has too many entries");
+            ids.put(key, nextId);
+            usedIds.set(nextId);
+        }
+
+        ret.flags = new int[usedIds.length()];
+        ret.refs = new ObjectIntMap<>(keys.size());
+        for (String key : keys) {
+            int id = ids.get(key, 0);
+            int oldId = oldIds.get(key, -1);
+            if (spec.flags != null && oldId != -1 && oldId < spec.flags.length &&
+                    ret.oldIdKeys.get(oldId, -1) != TypeAllocation.SHARED_ID)
+                ret.flags[id] = spec.flags[oldId];
+            ret.refs.put(key, typeRef | id);
+        }
+        return ret;
+    }
+
+    // Updates the references to the entries of the package, or only checks that they can be updated
+    private void remapReferences(Map<Integer, TypeAllocation> allocations, boolean apply) {
+        // entries and values may be shared by several configs, and must only be updated once
+        Set<Object> remapped = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ResTable.TypeBase typeBase : pkg.getTypes()) {
+            if (!(typeBase instanceof ResTable.Type))
+                continue;
+            ResTable.Type type = (ResTable.Type) typeBase;
+            if (type.getEntrySource() != null || type.entries == null)
+                continue;
+            for (ResTable.EntryBase entry : type.entries) {
+                if (entry instanceof ResTable.Entry) {
+                    remapValue(((ResTable.Entry) entry).getValue(), allocations, apply, remapped);
+                    continue;
+                }
+                ResTable.MapEntry map = (ResTable.MapEntry) entry;
+                if (!remapped.add(map))
+                    continue;
+                int parent = remapReference(map.parent, allocations);
+                if (map.value != null) {
+                    for (ResTable.MapEntry.Entry value : map.value) {
+                        int name = remapReference(value.name, allocations);
+                        if (apply)
+                            value.name = name;
+                        remapValue(value.value, allocations, apply, remapped);
+                    }
+                }
+                if (apply)
+                    map.parent = parent;
+            }
+        }
+    }
+
+    private void remapValue(ResValue value, Map<Integer, TypeAllocation> allocations, boolean apply,
+                            Set<Object> remapped) {
+        if (!(value instanceof ResValue.Integer) || ((ResValue.Integer) value).dataType != ResValue.TYPE_REFERENCE ||
+                !remapped.add(value))
+            return;
+        int data = remapReference(((ResValue.Integer) value).data, allocations);
+        if (apply)
+            ((ResValue.Integer) value).data = data;
+    }
+
+    private int remapReference(int ref, Map<Integer, TypeAllocation> allocations) {
+        if ((ref >>> 24) != pkg.id)
+            return ref;
+        TypeAllocation allocation = allocations.get((ref >>> 16) & 0xff);
+        if (allocation == null)
+            return ref;
+        int keyIndex = allocation.oldIdKeys.get(ref & MAX_ENTRY_ID, -1);
+        if (keyIndex == TypeAllocation.SHARED_ID) {
+            throw new IllegalArgumentException("reference 0x" + Integer.toHexString(ref) + " is to an id shared by " +
+                    "several keys of type " + allocation.spec.name);
+        }
+        // a reference to an id no entry had is left as it is
+        if (keyIndex == -1)
+            return ref;
+        return (ref & ~MAX_ENTRY_ID) | allocation.ids.get(allocation.keys.get(keyIndex), 0);
+    }
+
+    // The ids assigned to the keys of a type, before they're applied to its entries
+    private static class TypeAllocation {
+
+        // the key index of old ids which entries of more than one key had
+        static final int SHARED_ID = -2;
+
+        final ResTable.TypeSpec spec;
+        final List<ResTable.Type> types;
+        final List<String> keys = new ArrayList<>();
+        final ObjectIntMap<String> ids = new ObjectIntMap<>();
+        // the index of the key by the id its entries had before
+        final IntIntMap oldIdKeys = new IntIntMap();
+        int[] flags;
+        ObjectIntMap<String> refs;
+
+        TypeAllocation(ResTable.TypeSpec spec, List<ResTable.Type> types) {
+            this.spec = spec;
+            this.types = types;
+        }
+
+        void apply() {
+            for (ResTable.Type type : types) {
+                if (type.getEntrySource() != null || type.entries == null)
+                    continue;
+                for (ResTable.EntryBase entry : type.entries)
+                    entry.id = ids.get(entry.key, 0);
+            }
+            spec.flags = flags;
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+package io.mrarm.arsc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+import io.mrarm.arsc.util.IntIntMap;
+
+// Looks up resource ids (see ResTable.makeReference) in a table for a given device configuration. The Type chunks
+// are indexed by their (package, type) id up front; the matching configurations for a requested Config are ranked
+// once by select() and the resulting Selection can then be queried without any allocation. The resolver and its
+// selections are immutable and may be shared between threads. The table must not be modified afterwards.
+public class ResourceResolver {
+
+    // the platform gives up on reference chains longer than this
+    private static final int MAX_REFERENCE_DEPTH = 20;
+    // how many selections resolve() keeps for the configs it was called with
+    private static final int MAX_CACHED_SELECTIONS = 16;
+
+    private final IntIntMap typeGroupIndex = new IntIntMap();
+    private final List<TypeGroup> typeGroups = new ArrayList<>();
+    private final Map<ResTable.Config, Selection> selections = new ConcurrentHashMap<>();
+
+    public ResourceResolver(ResTable table) {
+        for (ResTable.Package pkg : table.getPackages()) {
+            for (ResTable.TypeBase type : pkg.getTypes()) {
+                if (!(type instanceof ResTable.Type))
+                    continue;
+                ResTable.Type t = (ResTable.Type) type;
+                int key = (pkg.id << 8) | t.id;
+                int groupIndex = typeGroupIndex.get(key, -1);
+                if (groupIndex == -1) {
+                    groupIndex = typeGroups.size();
+                    typeGroupIndex.put(key, groupIndex);
+                    typeGroups.add(new TypeGroup());
+                }
+                typeGroups.get(groupIndex).add(t);
+            }
+        }
+    }
+
+    public ResourceResolver(ArscReader reader) {
+        this(reader.toResTable());
+    }
+
+    public static ResourceResolver open(Path path) throws IOException {
+        return new ResourceResolver(ArscReader.open(path));
+    }
+
+    // Ranks the configurations of every type for the given device configuration
+    public Selection select(ResTable.Config config) {
+        return new Selection(config);
+    }
+
+    // Resolves the id using a selection for the config. The selections of the last few distinct configs are kept,
+    // so callers switching between a handful of configs don't rank them again; callers with more should hold on to
+    // the result of select() themselves.
+    public ResTable.EntryBase resolve(int resId, ResTable.Config config) {
+        return getSelection(config).resolve(resId);
+    }
+
+    public ResValue resolveValue(int resId, ResTable.Config config) {
+        return getSelection(config).resolveValue(resId);
+    }
+
+    private Selection getSelection(ResTable.Config config) {
+        Selection selection = selections.get(config);
+        if (selection == null) {
+            selection = select(config);
+            if (selections.size() >= MAX_CACHED_SELECTIONS)
+                selections.clear();
+            // keyed by the selection's copy of the config, as the caller may modify theirs
+            selections.put(selection.config, selection);
+        }
+        return selection;
+    }
+
+    // All the Type chunks with the same package and type id
+    private static class TypeGroup {
+
+        private final List<ResTable.Config> configs = new ArrayList<>();
+        private final List<EntryTable> tables = new ArrayList<>();
+
+        void add(ResTable.Type type) {
+            configs.add(type.config);
+            tables.add(new EntryTable(type.entries != null ? type.entries : type.getEntrySource()));
+        }
+
+    }
+
+    private static class EntryTable {
+
+        private final IntIntMap index;
+        private final ResTable.EntryBase[] entries;
+
+        EntryTable(Iterable<? extends ResTable.EntryBase> source) {
+            List<ResTable.EntryBase> list = new ArrayList<>();
+            if (source != null) {
+                for (ResTable.EntryBase entry : source)
+                    list.add(entry);
+            }
+            entries = list.toArray(new ResTable.EntryBase[0]);
+            index = new IntIntMap(entries.length);
+            for (int i = 0; i < entries.length; i++) {
+                if (!index.containsKey(entries[i].id))
+                    index.put(entries[i].id, i);
+            }
+        }
+
+        ResTable.EntryBase get(int entryId) {
+            int i = index.get(entryId, -1);
+            return i != -1 ? entries[i] : null;
+        }
+
+    }
+
+    public class Selection {
+
+        private final ResTable.Config config;
+        // for every type group, its matching tables with the best match first
+        private final EntryTable[][] rankedTables;
+
+        private Selection(ResTable.Config config) {
+            // a copy, as the caller may go on to modify theirs
+            this.config = new ResTable.Config(config);
+            rankedTables = new EntryTable[typeGroups.size()][];
+            for (int i = 0; i < rankedTables.length; i++)
+                rankedTables[i] = rank(typeGroups.get(i));
+        }
+
+        private EntryTable[] rank(TypeGroup group) {
+            List<ResTable.Config> configs = new ArrayList<>();
+            List<EntryTable> tables = new ArrayList<>();
+            for (int i = 0; i < group.configs.size(); i++) {
+                ResTable.Config c = group.configs.get(i);
+                if (!c.match(config))
+                    continue;
+                // insertion sort, stable so that earlier chunks win between equivalent configurations
+                int pos = configs.size();
+                while (pos > 0 && c.isBetterThan(configs.get(pos - 1), config))
+                    pos--;
+                configs.add(pos, c);
+                tables.add(pos, group.tables.get(i));
+            }
+            return tables.toArray(new EntryTable[0]);
+        }
+
+        public ResTable.Config getConfig() {
+            return new ResTable.Config(config);
+        }
+
+        // Returns the entry from the best matching configuration which defines it, or null if there's none
+        public ResTable.EntryBase resolve(int resId) {
+            int groupIndex = typeGroupIndex.get(resId >>> 16, -1);
+            if (groupIndex == -1)
+                return null;
+            int entryId = resId & 0xffff;
+            for (EntryTable table : rankedTables[groupIndex]) {
+                ResTable.EntryBase entry = table.get(entryId);
+                if (entry != null)
+                    return entry;
+            }
+            return null;
+        }
+
+        // Returns the value of a simple entry, following references to other resources. Returns null for
+        // missing resources, bags and reference loops.
+        public ResValue resolveValue(int resId) {
+            for (int depth = 0; depth < MAX_REFERENCE_DEPTH; depth++) {
+                ResTable.EntryBase entry = resolve(resId);
+                if (!(entry instanceof ResTable.Entry))
+                    return null;
+                ResValue value = ((ResTable.Entry) entry).getValue();
+                if (!(value instanceof ResValue.Integer) ||
+                        ((ResValue.Integer) value).dataType != ResValue.TYPE_REFERENCE)
+                    return value;
+                resId = ((ResValue.Integer) value).data;
+            }
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,186 @@
+package io.mrarm.arsc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+// An uncompressed zip entry written by ArscWriter.writeZipEntry. Only the local file header and the data are
+// written into the archive, the caller writes the central directory and can use writeCentralDirectoryHeader for
+// this entry. The entry is stored with the DOS epoch as its modification time, so the output is reproducible.
+public class StoredZipEntry {
+
+    // resources.arsc has to be aligned to 4 bytes for the platform to be able to map it
+    public static final int DEFAULT_ALIGNMENT = 4;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_CRC_OFFSET = 14;
+    private static final int VERSION_STORED = 10;
+    // made on Unix, as otherwise unzip converts the name from the DOS code page even if it's flagged as UTF-8
+    private static final int VERSION_MADE_BY = (3 << 8) | VERSION_STORED;
+    // a regular file readable by everyone, which is what unzip sets as the mode for entries made on Unix
+    private static final int UNIX_FILE_ATTRIBUTES = 0100644 << 16;
+    private static final int FLAG_UTF8_NAME = 0x800;
+    private static final int DOS_EPOCH_DATE = (1 << 5) | 1;
+    // the extra field apksigner and zipalign use to pad the data of an entry to its alignment
+    private static final int ALIGNMENT_EXTRA_ID = 0xd935;
+    private static final int ALIGNMENT_EXTRA_SIZE = 6;
+
+    private final String name;
+    private final byte[] encodedName;
+    private final int flags;
+    private final long localHeaderOffset;
+    private final int alignment;
+    private int size;
+    private int crc;
+
+    StoredZipEntry(String name, long localHeaderOffset, int alignment) {
+        if (alignment <= 0 || alignment > 0xffff)
+            throw new IllegalArgumentException("invalid alignment: " + alignment);
+        this.name = name;
+        this.encodedName = name.getBytes(StandardCharsets.UTF_8);
+        if (encodedName.length > 0xffff)
+            throw new IllegalArgumentException("entry name too long: " + name);
+        this.flags = encodedName.length != name.length() ? FLAG_UTF8_NAME : 0;
+        this.localHeaderOffset = localHeaderOffset;
+        this.alignment = alignment;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    public long getDataOffset() {
+        return localHeaderOffset + LOCAL_HEADER_SIZE + encodedName.length + getExtraSize();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCrc() {
+        return crc;
+    }
+
+    // The size of the alignment extra field, padded so that the data starts at a multiple of the alignment
+    private int getExtraSize() {
+        long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + encodedName.length + ALIGNMENT_EXTRA_SIZE;
+        return ALIGNMENT_EXTRA_SIZE + (int) ((alignment - dataOffset % alignment) % alignment);
+    }
+
+    // Writes the local file header with the CRC left as 0, which patchCrc fills in once the data is written
+    void writeLocalHeader(WritableByteChannel channel, int size) throws IOException {
+        this.size = size;
+        int extraSize = getExtraSize();
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + encodedName.length + extraSize);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION_STORED);
+        header.putShort((short) flags);
+        header.putShort((short) 0); // method: stored
+        header.putShort((short) 0); // modification time
+        header.putShort((short) DOS_EPOCH_DATE);
+        header.putInt(0); // crc
+        header.putInt(size); // compressed size
+        header.putInt(size); // uncompressed size
+        header.putShort((short) encodedName.length);
+        header.putShort((short) extraSize);
+        header.put(encodedName);
+        header.putShort((short) ALIGNMENT_EXTRA_ID);
+        header.putShort((short) (extraSize - 4));
+        header.putShort((short) alignment);
+        // the rest of the buffer is already zeroed
+        header.position(0);
+        writeFully(channel, header);
+    }
+
+    void patchCrc(SeekableByteChannel channel, int crc) throws IOException {
+        this.crc = crc;
+        long end = channel.position();
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, crc);
+        channel.position(localHeaderOffset + LOCAL_HEADER_CRC_OFFSET);
+        writeFully(channel, buf);
+        channel.position(end);
+    }
+
+    // Writes the central directory file header matching the local header of this entry
+    public void writeCentralDirectoryHeader(WritableByteChannel channel) throws IOException {
+        if (localHeaderOffset > 0xffffffffL)
+            throw new IOException("the entry is past the 4GB zip64 boundary");
+        ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + encodedName.length);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION_MADE_BY);
+        header.putShort((short) VERSION_STORED);
+        header.putShort((short) flags);
+        header.putShort((short) 0); // method: stored
+        header.putShort((short) 0); // modification time
+        header.putShort((short) DOS_EPOCH_DATE);
+        header.putInt(crc);
+        header.putInt(size); // compressed size
+        header.putInt(size); // uncompressed size
+        header.putShort((short) encodedName.length);
+        header.putShort((short) 0); // extra field length
+        header.putShort((short) 0); // comment length
+        header.putShort((short) 0); // disk number
+        header.putShort((short) 0); // internal attributes
+        header.putInt(UNIX_FILE_ATTRIBUTES); // external attributes
+        header.putInt((int) localHeaderOffset);
+        header.put(encodedName);
+        header.position(0);
+        writeFully(channel, header);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            channel.write(buf);
+    }
+
+    // Passes the data through to the archive while computing its CRC
+    static class CrcChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+        private final CRC32 crc = new CRC32();
+
+        CrcChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        int getCrc() {
+            return (int) crc.getValue();
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer data = src.duplicate();
+            int written = channel.write(src);
+            data.limit(data.position() + written);
+            crc.update(data);
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+    }
+
+}
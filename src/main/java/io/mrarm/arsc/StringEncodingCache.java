@@ -0,0 +1,45 @@
+package io.mrarm.arsc;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// The encoded form of pool strings (including the length prefix and the terminator), shared between the string
+// pools of many tables that are written at the same time. Once maxStrings strings of an encoding are stored,
+// further ones are encoded every time instead. Safe to use from multiple threads.
+public class StringEncodingCache {
+
+    public static final int DEFAULT_MAX_STRINGS = 1 << 20;
+
+    private final ConcurrentHashMap<String, byte[]> utf8Strings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, byte[]> utf16Strings = new ConcurrentHashMap<>();
+    private final int maxStrings;
+
+    public StringEncodingCache(int maxStrings) {
+        this.maxStrings = maxStrings;
+    }
+
+    public StringEncodingCache() {
+        this(DEFAULT_MAX_STRINGS);
+    }
+
+    private ConcurrentHashMap<String, byte[]> getStrings(boolean utf8) {
+        return utf8 ? utf8Strings : utf16Strings;
+    }
+
+    // Returns the encoded string, or null if it's not in the cache. The returned array must not be modified.
+    public byte[] get(String str, boolean utf8) {
+        return getStrings(utf8).get(str);
+    }
+
+    public void put(String str, boolean utf8, byte[] encoded) {
+        ConcurrentHashMap<String, byte[]> strings = getStrings(utf8);
+        // the limit may be overshot by a few strings when many threads add them at once
+        if (strings.size() < maxStrings)
+            strings.putIfAbsent(str, encoded);
+    }
+
+    public void clear() {
+        utf8Strings.clear();
+        utf16Strings.clear();
+    }
+
+}
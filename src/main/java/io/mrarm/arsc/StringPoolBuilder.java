@@ -1,84 +1,295 @@
 package io.mrarm.arsc;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 import io.mrarm.arsc.chunks.ResStringPool;
+import io.mrarm.arsc.util.IntList;
+import io.mrarm.arsc.util.ObjectIntMap;
+import io.mrarm.arsc.util.SegmentedBuffer;
 
-public class StringPoolBuilder {
+public class StringPoolBuilder implements Closeable {
 
     private static final Charset UTF8Charset = Charset.forName("UTF-8");
     private static final Charset UTF16Charset = Charset.forName("UTF-16LE");
 
-    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
-    private final Charset charset;
+    private SegmentedBuffer data = new SegmentedBuffer();
     private final boolean isUtf8;
 
-    private final List<Integer> offsets = new ArrayList<>();
+    // Every string is encoded along with its length and terminator into entry first, through these buffers
+    // which are reused for every string. Malformed input is replaced, the same as String.getBytes does.
+    private final CharsetEncoder encoder;
+    private char[] chars = new char[64];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+    private byte[] entry = new byte[256];
+    private int entrySize;
+    private ByteBuffer entryBuffer = ByteBuffer.wrap(entry);
 
-    public StringPoolBuilder(boolean utf8) {
+    private final IntList offsets = new IntList();
+    // the number of strings appended, including the ones that were already present
+    private int appendedCount;
+    // string -> index of its first occurrence, only present when interning
+    private final ObjectIntMap<String> stringIndex;
+    private StringEncodingCache encodingCache;
+    private boolean built;
+
+    public StringPoolBuilder(boolean utf8, boolean intern) {
         isUtf8 = utf8;
-        if (utf8)
-            charset = UTF8Charset;
-        else
-            charset = UTF16Charset;
+        Charset charset = utf8 ? UTF8Charset : UTF16Charset;
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        stringIndex = intern ? new ObjectIntMap<String>() : null;
+    }
+
+    public StringPoolBuilder(boolean utf8) {
+        this(utf8, false);
+    }
+
+    public boolean isInterning() {
+        return stringIndex != null;
+    }
+
+    // Makes the string data past the memory limit spill into a temporary file in the directory, which close
+    // deletes. Must be called before any strings are added.
+    public void setSpilling(long memoryLimit, Path directory) {
+        if (data.size() > 0)
+            throw new IllegalStateException("strings were already added");
+        data = new SegmentedBuffer(SegmentedBuffer.DEFAULT_BLOCK_SIZE, memoryLimit, directory);
+    }
+
+    // Copies strings encoded by other builders from the cache instead of encoding them again, and adds the
+    // ones it encodes itself
+    public void setEncodingCache(StringEncodingCache cache) {
+        this.encodingCache = cache;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= entry.length)
+            return;
+        entry = Arrays.copyOf(entry, Math.max(capacity, entry.length * 2));
+        entryBuffer = ByteBuffer.wrap(entry);
+    }
+
+    private void appendByte(int b) {
+        ensureCapacity(entrySize + 1);
+        entry[entrySize++] = (byte) b;
+    }
+
+    private static int getLengthSizeUTF8(int length) {
+        return length >= 0x80 ? 2 : 1;
     }
 
     private void appendLengthUTF8(int length) {
         if (length >= 0x80) {
-            data.write(((length >> 8) & 0x7F) | 0x80);
-            data.write(length & 0xFF);
+            appendByte(((length >> 8) & 0x7F) | 0x80);
+            appendByte(length & 0xFF);
         } else {
-            data.write(length);
+            appendByte(length);
         }
     }
 
     private void appendLengthUTF16(int length) {
-        length /= 2;
         if (length >= 0x8000) {
             int lo = length & 0xFFFF;
             int hi = ((length >> 16) & 0x7FFF) | 0x8000;
-            data.write(hi & 0xFF);
-            data.write((hi >> 8) & 0xFF);
-            data.write(lo & 0xFF);
-            data.write((lo >> 8) & 0xFF);
+            appendByte(hi & 0xFF);
+            appendByte((hi >> 8) & 0xFF);
+            appendByte(lo & 0xFF);
+            appendByte((lo >> 8) & 0xFF);
         } else {
-            data.write(length & 0xFF);
-            data.write((length >> 8) & 0xFF);
+            appendByte(length & 0xFF);
+            appendByte((length >> 8) & 0xFF);
+        }
+    }
+
+    // Encodes the string at the end of entry and returns the number of bytes it took
+    private int encode(String str) {
+        int length = str.length();
+        if (length > chars.length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+            charBuffer = CharBuffer.wrap(chars);
+        }
+        str.getChars(0, length, chars, 0);
+        charBuffer.clear();
+        charBuffer.limit(length);
+        // a rough guess, the buffer is grown if it turns out to be too small
+        ensureCapacity(entrySize + length * 3 + 4);
+        int start = entrySize;
+        entryBuffer.limit(entry.length);
+        entryBuffer.position(start);
+        encoder.reset();
+        CoderResult result = encoder.encode(charBuffer, entryBuffer, true);
+        while (true) {
+            if (result.isUnderflow())
+                result = encoder.flush(entryBuffer);
+            if (result.isUnderflow())
+                break;
+            if (!result.isOverflow())
+                throwEncodingError(result);
+            int position = entryBuffer.position();
+            ensureCapacity(entry.length * 2);
+            entryBuffer.position(position);
+            result = encoder.encode(charBuffer, entryBuffer, true);
+        }
+        entrySize = entryBuffer.position();
+        return entrySize - start;
+    }
+
+    private static void throwEncodingError(CoderResult result) {
+        try {
+            result.throwException();
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException(e);
         }
     }
 
+    private void appendData(byte[] bytes, int off, int len) {
+        try {
+            data.write(bytes, off, len);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkNotBuilt() {
+        if (built)
+            throw new IllegalStateException("the pool was already built");
+    }
+
     public int appendString(String str) {
+        checkNotBuilt();
+        appendedCount++;
+        if (stringIndex != null) {
+            int existing = stringIndex.putIfAbsent(str, offsets.size());
+            if (existing != offsets.size())
+                return existing;
+        }
         int ret = offsets.size();
         offsets.add(data.size());
-        byte[] val = str.getBytes(charset);
-        try {
-            if (isUtf8) {
-                appendLengthUTF8(str.getBytes(UTF16Charset).length / 2);
-                appendLengthUTF8(val.length);
-            } else {
-                appendLengthUTF16(val.length);
+        byte[] encoded = encodingCache != null ? encodingCache.get(str, isUtf8) : null;
+        if (encoded != null) {
+            appendData(encoded, 0, encoded.length);
+            return ret;
+        }
+        encodeEntry(str);
+        if (encodingCache != null)
+            encodingCache.put(str, isUtf8, Arrays.copyOf(entry, entrySize));
+        appendData(entry, 0, entrySize);
+        return ret;
+    }
+
+    // Encodes the string along with its length and terminator into entry
+    private void encodeEntry(String str) {
+        entrySize = 0;
+        // the UTF-16 length in code units is the same as the String's, malformed surrogates are replaced by
+        // a single character
+        if (isUtf8) {
+            appendLengthUTF8(str.length());
+            // the encoded length isn't known up front, so reserve the room for a two byte length and move the
+            // string back by one byte if it turns out to be short
+            int lengthPos = entrySize;
+            entrySize += 2;
+            int encodedLength = encode(str);
+            if (getLengthSizeUTF8(encodedLength) == 1)
+                System.arraycopy(entry, lengthPos + 2, entry, lengthPos + 1, encodedLength);
+            entrySize = lengthPos;
+            appendLengthUTF8(encodedLength);
+            entrySize += encodedLength;
+            appendByte(0);
+        } else {
+            appendLengthUTF16(str.length());
+            encode(str);
+            appendByte(0);
+            appendByte(0);
+        }
+    }
+
+    public int getStringCount() {
+        return offsets.size();
+    }
+
+    // Returns how many strings were appended in total; those that were interned are only stored once
+    public int getAppendedCount() {
+        return appendedCount;
+    }
+
+    // Creates an empty builder with the same settings, which can be filled independently and later merged
+    // back using appendPool.
+    public StringPoolBuilder createShard() {
+        StringPoolBuilder ret = new StringPoolBuilder(isUtf8, isInterning());
+        ret.encodingCache = encodingCache;
+        return ret;
+    }
+
+    // Appends all the strings of a shard created with createShard, reusing their already encoded form.
+    // Returns the index in this pool for every string index of the shard.
+    public int[] appendPool(StringPoolBuilder shard) {
+        checkNotBuilt();
+        if (shard.isUtf8 != isUtf8)
+            throw new IllegalArgumentException("the pools use a different encoding");
+        int count = shard.offsets.size();
+        int[] ret = new int[count];
+        appendedCount += shard.appendedCount;
+        String[] strings = null;
+        if (stringIndex != null && shard.stringIndex != null) {
+            strings = new String[count];
+            for (int slot = 0; slot < shard.stringIndex.getCapacity(); slot++) {
+                String str = shard.stringIndex.getKeyAt(slot);
+                if (str != null)
+                    strings[shard.stringIndex.getValueAt(slot)] = str;
+            }
+        }
+        SegmentedBuffer shardData = shard.data;
+        int shardDataSize = shardData.size();
+        for (int i = 0; i < count; i++) {
+            if (strings != null) {
+                int existing = stringIndex.putIfAbsent(strings[i], offsets.size());
+                if (existing != offsets.size()) {
+                    ret[i] = existing;
+                    continue;
+                }
+            } else if (stringIndex != null) {
+                throw new IllegalArgumentException("can't merge a shard that is not interning");
+            }
+            int start = shard.offsets.get(i);
+            int end = (i + 1 < count ? shard.offsets.get(i + 1) : shardDataSize);
+            ret[i] = offsets.size();
+            offsets.add(data.size());
+            try {
+                data.write(shardData, start, end - start);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-            data.write(val);
-            data.write(0);
-            if (!isUtf8)
-                data.write(0);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
         return ret;
     }
 
+    // Hands the string data over to the pool without copying it, so no more strings can be added afterwards
     public ResStringPool build() {
+        checkNotBuilt();
+        built = true;
         ResStringPool res = new ResStringPool();
-        res.stringOffsets = offsets;
-        res.stringData = data.toByteArray();
+        res.stringOffsets = offsets.toArray();
+        res.stringData = data;
         if (isUtf8)
             res.flags |= ResStringPool.FLAG_UTF8;
         return res;
     }
 
+    // Deletes the file the data spilled into, if any. The built pool can't be written afterwards.
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+
 }
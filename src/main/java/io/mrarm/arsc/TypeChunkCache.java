@@ -0,0 +1,109 @@
+package io.mrarm.arsc;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// An on-disk cache of serialized Type chunks, keyed by a digest of everything the chunk's bytes depend on (the
+// write settings, the config and the entries along with the key and global string indices they resolve to).
+// Chunks found in the cache are copied into the output as is instead of being laid out and serialized again.
+// Types backed by an entry source are always serialized. Entries are evicted once they haven't been used for
+// maxAge, or, oldest first, when the cache grows over maxSize bytes. A cache directory may be shared between
+// processes.
+public class TypeChunkCache {
+
+    private static final String FILE_SUFFIX = ".chunk";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxSize;
+    private final long maxAgeMillis;
+
+    public TypeChunkCache(Path directory, long maxSize, long maxAgeMillis) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        Files.createDirectories(directory);
+    }
+
+    private Path getPath(String digest) {
+        return directory.resolve(digest + FILE_SUFFIX);
+    }
+
+    // Returns the cached chunk, or null if there's none
+    public byte[] get(String digest) throws IOException {
+        Path path = getPath(digest);
+        try {
+            byte[] ret = Files.readAllBytes(path);
+            // eviction goes by the time of last use
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return ret;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public void put(String digest, byte[] data) throws IOException {
+        // written to a temporary file first, so that a concurrent get never sees a partial chunk
+        Path temp = Files.createTempFile(directory, digest, TEMP_FILE_SUFFIX);
+        try {
+            Files.write(temp, data);
+            Files.move(temp, getPath(digest), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public void evict() throws IOException {
+        long minTime = System.currentTimeMillis() - maxAgeMillis;
+        List<CachedFile> files = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path path : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue; // evicted by someone else
+                }
+                long lastUsed = attrs.lastModifiedTime().toMillis();
+                if (lastUsed < minTime) {
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                files.add(new CachedFile(path, lastUsed, attrs.size()));
+                totalSize += attrs.size();
+            }
+        }
+        if (totalSize <= maxSize)
+            return;
+        files.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+        for (int i = 0; i < files.size() && totalSize > maxSize; i++) {
+            Files.deleteIfExists(files.get(i).path);
+            totalSize -= files.get(i).size;
+        }
+    }
+
+    private static class CachedFile {
+
+        final Path path;
+        final long lastUsed;
+        final long size;
+
+        CachedFile(Path path, long lastUsed, long size) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+
+    }
+
+}
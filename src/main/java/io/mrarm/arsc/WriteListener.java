@@ -0,0 +1,44 @@
+package io.mrarm.arsc;
+
+import io.mrarm.arsc.chunks.ResTable;
+
+// Receives timings and statistics about the phases of a write, see ArscWriter.setWriteListener. Durations are in
+// nanoseconds and sizes in bytes. When preparing or writing in parallel the methods are called from the executor
+// threads, so implementations have to be thread safe. Nothing is measured when no listener is set.
+public interface WriteListener {
+
+    // The whole prepare phase, including building all the string pools
+    default void onPrepared(long durationNanos) {
+    }
+
+    // The global string pool got built. appendedCount is the number of strings the entries asked for, of which
+    // deduplicatedCount were already present in the pool.
+    default void onGlobalStringPoolBuilt(long durationNanos, int appendedCount, int deduplicatedCount,
+                                         int size) {
+    }
+
+    default void onPackagePoolsBuilt(int packageId, long durationNanos, int typeStringCount, int keyStringCount,
+                                     int size) {
+    }
+
+    // Called whenever a type chunk cache (see ArscWriter.setTypeChunkCache) is consulted
+    default void onTypeChunkCacheLookup(int typeId, ResTable.Config config, boolean hit) {
+    }
+
+    default void onTypeSpecWritten(int packageId, int typeId, long durationNanos, int size) {
+    }
+
+    // entryCount counts all the entries of the type, including the deduplicated ones that share the data of
+    // another entry; both are reported for chunks copied from the cache as well
+    default void onTypeWritten(int packageId, int typeId, ResTable.Config config, long durationNanos, int size,
+                               int entryCount, int deduplicatedEntryCount) {
+    }
+
+    // When writing in parallel, every package reports the time it took to write all of them
+    default void onPackageWritten(int packageId, long durationNanos, int size) {
+    }
+
+    default void onWritten(long durationNanos, long size) {
+    }
+
+}
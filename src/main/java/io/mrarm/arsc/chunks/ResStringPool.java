@@ -1,17 +1,19 @@
 package io.mrarm.arsc.chunks;
 
 import java.io.IOException;
-import java.util.List;
 
 import io.mrarm.arsc.DataWriter;
+import io.mrarm.arsc.util.SegmentedBuffer;
 
 public class ResStringPool extends ResChunk {
 
     public static final int FLAG_SORTED = 1;
     public static final int FLAG_UTF8 = 256;
 
-    public List<Integer> stringOffsets;
-    public byte[] stringData;
+    private static final byte[] PADDING = new byte[4];
+
+    public int[] stringOffsets;
+    public SegmentedBuffer stringData;
     public int flags;
 
     @Override
@@ -34,10 +36,10 @@ public class ResStringPool extends ResChunk {
         @Override
         public void writeHeader(DataWriter writer) throws IOException {
             super.writeHeader(writer);
-            writer.writeInt(chunk.stringOffsets.size());
+            writer.writeInt(chunk.stringOffsets.length);
             writer.writeInt(0); // styleCount
             writer.writeInt(chunk.flags);
-            writer.writeInt(getHeaderSize() + chunk.stringOffsets.size() * 4); // stringsStart
+            writer.writeInt(getHeaderSize() + chunk.stringOffsets.length * 4); // stringsStart
             writer.writeInt(0); // stylesStart
         }
 
@@ -48,19 +50,16 @@ public class ResStringPool extends ResChunk {
 
         @Override
         public void writeBody(DataWriter writer) throws IOException {
-            for (int offset : chunk.stringOffsets)
-                writer.writeInt(offset);
-            writer.write(chunk.stringData);
+            writer.writeInts(chunk.stringOffsets);
+            chunk.stringData.writeTo(writer);
             // pad to 4 bytes
-            if ((chunk.stringData.length % 4) != 0) {
-                for (int i = 4 - (chunk.stringData.length % 4); i > 0; --i)
-                    writer.writeByte(0);
-            }
+            if ((chunk.stringData.size() % 4) != 0)
+                writer.write(PADDING, 0, 4 - (chunk.stringData.size() % 4));
         }
 
         @Override
         public int calculateBodySize() {
-            return chunk.stringOffsets.size() * 4 + (chunk.stringData.length + 3) / 4 * 4;
+            return chunk.stringOffsets.length * 4 + (chunk.stringData.size() + 3) / 4 * 4;
         }
     }
 
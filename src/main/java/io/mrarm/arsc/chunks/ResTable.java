@@ -1,17 +1,32 @@
 package io.mrarm.arsc.chunks;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import io.mrarm.arsc.DataWritePreparer;
 import io.mrarm.arsc.DataWriter;
 import io.mrarm.arsc.FragmentWriter;
+import io.mrarm.arsc.StringEncodingCache;
 import io.mrarm.arsc.StringPoolBuilder;
+import io.mrarm.arsc.TypeChunkCache;
+import io.mrarm.arsc.WriteListener;
+import io.mrarm.arsc.util.ContentDigest;
+import io.mrarm.arsc.util.ObjectIntMap;
 
 public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
@@ -42,6 +57,40 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
         this.packages.add(pkg);
     }
 
+    public List<Package> getPackages() {
+        return packages;
+    }
+
+    private static void await(Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks)
+                await(task);
+        } finally {
+            // only has an effect if one of the tasks failed
+            for (Future<?> task : tasks)
+                task.cancel(false);
+            tasks.clear();
+        }
+    }
+
     @Override
     public ResChunk.Writer createWriter() {
         return new Writer(this);
@@ -57,6 +106,8 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
         private List<Package.Writer> packageWriters = new ArrayList<>();
         private ResStringPool globalPoolBuilt;
         private ResStringPool.Writer globalPoolWriter;
+        private ExecutorService executor;
+        private WriteListener listener;
 
         public Writer(ResTable chunk) {
             super(chunk);
@@ -66,15 +117,75 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
             }
         }
 
+        // Creates a writer for a part of the table, see SplitWriter
+        private Writer(ResTable chunk, List<Package.Writer> packageWriters) {
+            super(chunk);
+            this.packageWriters = packageWriters;
+        }
+
         @Override
-        public void prepare(DataWritePreparer preparer) {
-            StringPoolBuilder globalPool = new StringPoolBuilder(true);
-            preparer.setGlobalStringPool(globalPool);
-            for (Package.Writer child : packageWriters)
-                child.prepare(preparer);
-            preparer.setGlobalStringPool(null);
+        public void prepare(DataWritePreparer preparer) throws IOException {
+            StringPoolBuilder globalPool = preparer.createStringPool(true, true);
+            executor = preparer.getExecutor();
+            listener = preparer.getWriteListener();
+            if (executor != null) {
+                prepareParallel(preparer, globalPool);
+            } else {
+                preparer.setGlobalStringPool(globalPool);
+                for (Package.Writer child : packageWriters)
+                    child.prepare(preparer);
+                preparer.setGlobalStringPool(null);
+            }
+            long start = listener != null ? System.nanoTime() : 0;
             globalPoolBuilt = globalPool.build();
             globalPoolWriter = globalPoolBuilt.createWriter();
+            if (listener != null) {
+                listener.onGlobalStringPoolBuilt(System.nanoTime() - start, globalPool.getAppendedCount(),
+                        globalPool.getAppendedCount() - globalPool.getStringCount(), globalPoolWriter.getTotalSize());
+            }
+        }
+
+        private void prepareParallel(final DataWritePreparer preparer, StringPoolBuilder globalPool)
+                throws IOException {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (final Package.Writer child : packageWriters)
+                tasks.add(executor.submit(() -> {
+                    child.preparePools(preparer);
+                    return null;
+                }));
+            awaitAll(tasks);
+
+            // Every type collects its strings into its own shard. The shards are merged in the order in which
+            // the sequential prepare would have appended the strings, so the resulting pool is identical.
+            List<TypeBase.Writer> types = new ArrayList<>();
+            List<StringPoolBuilder> shards = new ArrayList<>();
+            List<Future<?>> prepareTasks = new ArrayList<>();
+            for (Package.Writer child : packageWriters) {
+                for (final TypeBase.Writer type : child.typeWriters) {
+                    StringPoolBuilder shard = globalPool.createShard();
+                    final DataWritePreparer shardPreparer = new DataWritePreparer(preparer);
+                    shardPreparer.setGlobalStringPool(shard);
+                    types.add(type);
+                    shards.add(shard);
+                    prepareTasks.add(executor.submit(() -> {
+                        type.prepare(shardPreparer);
+                        return null;
+                    }));
+                }
+            }
+            try {
+                for (int i = 0; i < types.size(); i++) {
+                    await(prepareTasks.get(i));
+                    final TypeBase.Writer type = types.get(i);
+                    final int[] map = globalPool.appendPool(shards.get(i));
+                    shards.set(i, null);
+                    tasks.add(executor.submit(() -> type.remapGlobalStrings(map)));
+                }
+            } finally {
+                for (Future<?> task : prepareTasks)
+                    task.cancel(false);
+            }
+            awaitAll(tasks);
         }
 
         @Override
@@ -91,8 +202,25 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
         @Override
         public void writeBody(DataWriter writer) throws IOException {
             globalPoolWriter.write(writer);
-            for (Package.Writer child : packageWriters)
+            if (executor != null && writer.canSlice()) {
+                long start = listener != null ? System.nanoTime() : 0;
+                List<Future<?>> tasks = new ArrayList<>();
+                for (Package.Writer child : packageWriters)
+                    child.writeParallel(writer.slice(child.getTotalSize()), executor, tasks);
+                awaitAll(tasks);
+                if (listener != null) {
+                    long duration = System.nanoTime() - start;
+                    for (Package.Writer child : packageWriters)
+                        listener.onPackageWritten(child.chunk.id, duration, child.getTotalSize());
+                }
+                return;
+            }
+            for (Package.Writer child : packageWriters) {
+                long start = listener != null ? System.nanoTime() : 0;
                 child.write(writer);
+                if (listener != null)
+                    listener.onPackageWritten(child.chunk.id, System.nanoTime() - start, child.getTotalSize());
+            }
         }
 
         @Override
@@ -105,6 +233,109 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
     }
 
+    // Writes a table as a base table and a number of splits, each of which holds the Type chunks of some of the
+    // configurations, e.g. those of a language. Types of the configurations that are in none of the splits go
+    // into the base table, along with all the packages and TypeSpecs; a split only has the packages and
+    // TypeSpecs of the types it has Type chunks of. Every table gets key and global string pools with just the
+    // strings of its own entries. The type string pools are built once for all of them, and so is the encoded
+    // form of the strings the tables have in common.
+    public static class SplitWriter {
+
+        private final ResTable table;
+        private final List<? extends Collection<Config>> splits;
+        private Writer[] partWriters;
+
+        public SplitWriter(ResTable table, List<? extends Collection<Config>> splits) {
+            this.table = table;
+            this.splits = splits;
+        }
+
+        public int getSplitCount() {
+            return splits.size();
+        }
+
+        // Returns the writer of the base table; it's already prepared
+        public ResChunk.Writer getBaseWriter() {
+            return getPartWriter(0);
+        }
+
+        public ResChunk.Writer getSplitWriter(int split) {
+            if (split < 0 || split >= splits.size())
+                throw new IndexOutOfBoundsException("no split " + split);
+            return getPartWriter(split + 1);
+        }
+
+        private Writer getPartWriter(int part) {
+            if (partWriters == null)
+                throw new IllegalStateException("the split writer is not prepared");
+            return partWriters[part];
+        }
+
+        // Returns the part (0 for the base, split index + 1 otherwise) of each configuration in a split
+        private Map<Config, Integer> getConfigParts() {
+            Map<Config, Integer> ret = new HashMap<>();
+            for (int i = 0; i < splits.size(); i++) {
+                for (Config config : splits.get(i)) {
+                    if (ret.put(config, i + 1) != null)
+                        throw new IllegalArgumentException("a config is in more than one split");
+                }
+            }
+            return ret;
+        }
+
+        public void prepare(DataWritePreparer preparer) throws IOException {
+            if (preparer.getStringEncodingCache() == null) {
+                preparer = new DataWritePreparer(preparer);
+                preparer.setStringEncodingCache(new StringEncodingCache());
+            }
+            Map<Config, Integer> configParts = getConfigParts();
+            int partCount = splits.size() + 1;
+            List<List<Package.Writer>> partPackages = new ArrayList<>();
+            for (int part = 0; part < partCount; part++)
+                partPackages.add(new ArrayList<>());
+            for (Package pkg : table.getPackages()) {
+                List<TypeBase> types = pkg.getTypes();
+                int[] typeParts = new int[types.size()];
+                BitSet[] partTypeIds = new BitSet[partCount];
+                for (int part = 0; part < partCount; part++)
+                    partTypeIds[part] = new BitSet();
+                for (int i = 0; i < types.size(); i++) {
+                    if (!(types.get(i) instanceof Type))
+                        continue;
+                    Type type = (Type) types.get(i);
+                    Integer part = configParts.get(type.config);
+                    typeParts[i] = part != null ? part : 0;
+                    partTypeIds[typeParts[i]].set(type.id);
+                }
+                List<List<TypeBase>> partTypes = new ArrayList<>();
+                for (int part = 0; part < partCount; part++)
+                    partTypes.add(new ArrayList<>());
+                for (int i = 0; i < types.size(); i++) {
+                    TypeBase type = types.get(i);
+                    if (type instanceof TypeSpec) {
+                        for (int part = 0; part < partCount; part++) {
+                            if (part == 0 || partTypeIds[part].get(((TypeSpec) type).id))
+                                partTypes.get(part).add(type);
+                        }
+                    } else {
+                        partTypes.get(typeParts[i]).add(type);
+                    }
+                }
+                ResStringPool typesPool = Package.Writer.buildTypesPool(types, preparer);
+                for (int part = 0; part < partCount; part++) {
+                    if (part == 0 || !partTypes.get(part).isEmpty())
+                        partPackages.get(part).add(new Package.Writer(pkg, partTypes.get(part), typesPool));
+                }
+            }
+            partWriters = new Writer[partCount];
+            for (int part = 0; part < partCount; part++) {
+                partWriters[part] = new Writer(table, partPackages.get(part));
+                partWriters[part].prepare(preparer);
+            }
+        }
+
+    }
+
 
     public static class Package extends ResChunk {
 
@@ -128,66 +359,201 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
             entries.add(entry);
         }
 
+        public List<TypeBase> getTypes() {
+            if (entries == null)
+                return Collections.emptyList();
+            return entries;
+        }
+
 
 
         public static class Writer extends ResChunk.Writer<Package> {
 
             private List<TypeBase.Writer> typeWriters = new ArrayList<>();
-            private Map<String, Integer> publicKeysIdx;
-            private Map<String, Integer> privateKeysIdx;
+            private ObjectIntMap<String> publicKeysIdx;
+            private ObjectIntMap<String> privateKeysIdx;
             private ResStringPool typesPool;
             private ResStringPool keysPool;
             private ResStringPool.Writer typesPoolWriter;
             private ResStringPool.Writer keysPoolWriter;
+            private ResStringPool sharedTypesPool;
+            private WriteListener listener;
 
             public Writer(Package chunk) {
                 super(chunk);
-                if (chunk.entries != null) {
-                    for (TypeBase entry : chunk.entries)
-                        typeWriters.add(entry.createWriter(this));
+                for (TypeBase entry : mergeDuplicateTypes(chunk.getTypes()))
+                    typeWriters.add(entry.createWriter(this));
+            }
+
+            // Creates a writer for some of the types of the package, with a type string pool built for all of them
+            private Writer(Package chunk, List<TypeBase> types, ResStringPool typesPool) {
+                super(chunk);
+                for (TypeBase entry : mergeDuplicateTypes(types))
+                    typeWriters.add(entry.createWriter(this));
+                this.sharedTypesPool = typesPool;
+            }
+
+            // Replaces Types with the same id and config by a single one with the entries of all of them, placed
+            // where the first of them was, so that each is written as one chunk. The Types themselves are left
+            // as they are. Types backed by an entry source are never merged.
+            private static List<TypeBase> mergeDuplicateTypes(List<TypeBase> types) {
+                Map<TypeKey, Integer> firstIndex = new HashMap<>();
+                List<TypeBase> ret = null;
+                Map<TypeKey, BitSet> mergedIds = null;
+                for (int i = 0; i < types.size(); i++) {
+                    TypeBase typeBase = types.get(i);
+                    if (!(typeBase instanceof Type) || ((Type) typeBase).entrySource != null) {
+                        if (ret != null)
+                            ret.add(typeBase);
+                        continue;
+                    }
+                    Type type = (Type) typeBase;
+                    TypeKey key = new TypeKey(type.id, type.config);
+                    Integer first = firstIndex.get(key);
+                    if (first == null) {
+                        firstIndex.put(key, ret != null ? ret.size() : i);
+                        if (ret != null)
+                            ret.add(type);
+                        continue;
+                    }
+                    if (ret == null) {
+                        ret = new ArrayList<>(types.subList(0, i));
+                        mergedIds = new HashMap<>();
+                    }
+                    BitSet ids = mergedIds.get(key);
+                    if (ids == null) {
+                        Type firstType = (Type) ret.get(first);
+                        Type merged = new Type(firstType.id, firstType.config);
+                        merged.entries = new ArrayList<>();
+                        ids = new BitSet();
+                        addMergedEntries(merged, firstType, ids);
+                        ret.set(first, merged);
+                        mergedIds.put(key, ids);
+                    }
+                    addMergedEntries((Type) ret.get(first), type, ids);
+                }
+                return ret != null ? ret : types;
+            }
+
+            private static void addMergedEntries(Type merged, Type type, BitSet ids) {
+                if (type.entries == null)
+                    return;
+                for (EntryBase entry : type.entries) {
+                    if (ids.get(entry.id)) {
+                        throw new IllegalArgumentException("entry " + entry.id + " (" + entry.key + ") of type " +
+                                type.id + " is defined more than once for the same config");
+                    }
+                    ids.set(entry.id);
+                    merged.entries.add(entry);
                 }
             }
 
-            private void buildKeysPool() {
-                StringPoolBuilder keysBuilder = new StringPoolBuilder(true);
+            private static class TypeKey {
+
+                final int id;
+                final Config config;
+
+                TypeKey(int id, Config config) {
+                    this.id = id;
+                    this.config = config;
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    return o instanceof TypeKey && ((TypeKey) o).id == id && ((TypeKey) o).config.equals(config);
+                }
+
+                @Override
+                public int hashCode() {
+                    return id * 31 + config.hashCode();
+                }
+
+            }
+
+            private void buildKeysPool(DataWritePreparer preparer) {
+                StringPoolBuilder keysBuilder = preparer.createStringPool(true, false);
                 Set<String> privateKeys = new HashSet<>();
                 Set<String> publicKeys = new HashSet<>();
                 for (TypeBase.Writer t : typeWriters)
-                    t.collectKeyStrings(publicKeys, privateKeys);
-                publicKeysIdx = new HashMap<>();
-                privateKeysIdx = new HashMap<>();
-                for (String key : publicKeys)
+                    t.collectKeyStrings(preparer, publicKeys, privateKeys);
+                // sort the keys so that the pool doesn't depend on the hash set iteration order
+                String[] sortedPublicKeys = publicKeys.toArray(new String[0]);
+                String[] sortedPrivateKeys = privateKeys.toArray(new String[0]);
+                Arrays.sort(sortedPublicKeys, Writer::compareCodePoints);
+                Arrays.sort(sortedPrivateKeys, Writer::compareCodePoints);
+                publicKeysIdx = new ObjectIntMap<>(sortedPublicKeys.length);
+                privateKeysIdx = new ObjectIntMap<>(sortedPrivateKeys.length);
+                for (String key : sortedPublicKeys)
                     publicKeysIdx.put(key, keysBuilder.appendString(key));
-                for (String key : privateKeys)
+                for (String key : sortedPrivateKeys)
                     privateKeysIdx.put(key, keysBuilder.appendString(key));
                 keysPool = keysBuilder.build();
+                // public keys come first, so the pool as a whole is only sorted if they all precede the private ones
+                if (sortedPublicKeys.length == 0 || sortedPrivateKeys.length == 0 ||
+                        compareCodePoints(sortedPublicKeys[sortedPublicKeys.length - 1], sortedPrivateKeys[0]) < 0)
+                    keysPool.flags |= ResStringPool.FLAG_SORTED;
                 keysPoolWriter = keysPool.createWriter();
             }
 
-            private void buildTypesPool() {
-                StringPoolBuilder typesBuilder = new StringPoolBuilder(false);
+            // The order of the strings' UTF-8 encodings, which is the order of their code points. String.compareTo
+            // compares UTF-16 code units instead, which puts supplementary characters before U+E000..U+FFFF.
+            public static int compareCodePoints(String a, String b) {
+                int i = 0;
+                int j = 0;
+                while (i < a.length() && j < b.length()) {
+                    int ca = a.codePointAt(i);
+                    int cb = b.codePointAt(j);
+                    if (ca != cb)
+                        return Integer.compare(ca, cb);
+                    i += Character.charCount(ca);
+                    j += Character.charCount(cb);
+                }
+                return Integer.compare(a.length() - i, b.length() - j);
+            }
+
+            protected int getKeyIndex(String key, boolean isPublic) {
+                ObjectIntMap<String> keyTable = isPublic ? publicKeysIdx : privateKeysIdx;
+                int ret = keyTable.get(key, -1);
+                if (ret == -1)
+                    throw new IllegalStateException("key was not collected during prepare: " + key);
+                return ret;
+            }
+
+            private static ResStringPool buildTypesPool(List<TypeBase> types, DataWritePreparer preparer) {
+                StringPoolBuilder typesBuilder = preparer.createStringPool(false, false);
                 int maxIndex = 0;
-                for (TypeBase.Writer type : typeWriters) {
-                    if (type.chunk instanceof TypeSpec)
-                        maxIndex = ((TypeSpec) type.chunk).id;
+                for (TypeBase type : types) {
+                    if (type instanceof TypeSpec)
+                        maxIndex = ((TypeSpec) type).id;
                 }
                 String[] strings = new String[maxIndex];
-                for (TypeBase.Writer type : typeWriters) {
-                    if (type.chunk instanceof TypeSpec)
-                        strings[((TypeSpec) type.chunk).id - 1] = ((TypeSpec) type.chunk).name;
+                for (TypeBase type : types) {
+                    if (type instanceof TypeSpec)
+                        strings[((TypeSpec) type).id - 1] = ((TypeSpec) type).name;
                 }
                 for (String str : strings)
                     typesBuilder.appendString(str);
-                typesPool = typesBuilder.build();
-                typesPoolWriter = typesPool.createWriter();
+                return typesBuilder.build();
             }
 
-            @Override
-            public void prepare(DataWritePreparer preparer) {
-                buildKeysPool();
-                buildTypesPool();
+            private void preparePools(DataWritePreparer preparer) throws IOException {
+                listener = preparer.getWriteListener();
+                long start = listener != null ? System.nanoTime() : 0;
+                buildKeysPool(preparer);
+                typesPool = sharedTypesPool != null ? sharedTypesPool : buildTypesPool(chunk.getTypes(), preparer);
+                typesPoolWriter = typesPool.createWriter();
                 typesPoolWriter.prepare(preparer);
                 keysPoolWriter.prepare(preparer);
+                if (listener != null) {
+                    listener.onPackagePoolsBuilt(chunk.id, System.nanoTime() - start, typesPool.stringOffsets.length,
+                            keysPool.stringOffsets.length,
+                            typesPoolWriter.getTotalSize() + keysPoolWriter.getTotalSize());
+                }
+            }
+
+            @Override
+            public void prepare(DataWritePreparer preparer) throws IOException {
+                preparePools(preparer);
                 for (TypeBase.Writer child : typeWriters)
                     child.prepare(preparer);
             }
@@ -212,7 +578,38 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
                 typesPoolWriter.write(writer);
                 keysPoolWriter.write(writer);
                 for (TypeBase.Writer child : typeWriters)
+                    writeType(child, writer);
+            }
+
+            private void writeType(TypeBase.Writer child, DataWriter writer) throws IOException {
+                if (listener == null) {
                     child.write(writer);
+                    return;
+                }
+                long start = System.nanoTime();
+                child.write(writer);
+                long duration = System.nanoTime() - start;
+                if (child.chunk instanceof TypeSpec) {
+                    listener.onTypeSpecWritten(chunk.id, ((TypeSpec) child.chunk).id, duration, child.getTotalSize());
+                } else if (child.chunk instanceof Type) {
+                    Type type = (Type) child.chunk;
+                    listener.onTypeWritten(chunk.id, type.id, type.config, duration, child.getTotalSize(),
+                            child.getEntryCount(), child.getDeduplicatedEntryCount());
+                }
+            }
+
+            private void writeParallel(DataWriter writer, ExecutorService executor, List<Future<?>> tasks)
+                    throws IOException {
+                writeHeader(writer);
+                typesPoolWriter.write(writer);
+                keysPoolWriter.write(writer);
+                for (final TypeBase.Writer child : typeWriters) {
+                    final DataWriter childWriter = writer.slice(child.getTotalSize());
+                    tasks.add(executor.submit(() -> {
+                        writeType(child, childWriter);
+                        return null;
+                    }));
+                }
             }
 
 
@@ -246,6 +643,55 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
         private short minorVersion = 0;
         private int screenConfig = 0;
         private int screenSizeDp = 0;
+        // the fields of newer config versions which are not modelled here, kept as is when read from a file
+        private byte[] extraData;
+
+        public Config() {
+        }
+
+        public Config(Config other) {
+            imsi = other.imsi;
+            language = other.language;
+            country = other.country;
+            screenType = other.screenType;
+            input = other.input;
+            screenSize = other.screenSize;
+            sdkVersion = other.sdkVersion;
+            minorVersion = other.minorVersion;
+            screenConfig = other.screenConfig;
+            screenSizeDp = other.screenSizeDp;
+            extraData = other.extraData != null ? other.extraData.clone() : null;
+        }
+
+        // Reads a ResTable_config from the current position of a little endian buffer
+        public static Config read(ByteBuffer buffer) {
+            int start = buffer.position();
+            int size = buffer.getInt(start);
+            ByteBuffer data = ByteBuffer.allocate(Math.max(size, 4 * 9)).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer src = buffer.duplicate();
+            src.limit(start + size);
+            data.put(src);
+            data.position(4);
+            Config ret = new Config();
+            ret.imsi = data.getInt();
+            ret.language = readChars(data);
+            ret.country = readChars(data);
+            ret.screenType = data.getInt();
+            ret.input = data.getInt();
+            ret.screenSize = data.getInt();
+            ret.sdkVersion = data.getShort();
+            ret.minorVersion = data.getShort();
+            ret.screenConfig = data.getInt();
+            ret.screenSizeDp = data.getInt();
+            if (size > 4 * 9)
+                ret.extraData = Arrays.copyOfRange(data.array(), 4 * 9, size);
+            buffer.position(start + size);
+            return ret;
+        }
+
+        private static String readChars(ByteBuffer data) {
+            return new String(new char[] { (char) (data.get() & 0xff), (char) (data.get() & 0xff) });
+        }
 
         public void write(DataWriter writer) throws IOException {
             writer.writeInt(getSize());
@@ -261,10 +707,224 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
             writer.writeShort(minorVersion);
             writer.writeInt(screenConfig);
             writer.writeInt(screenSizeDp);
+            if (extraData != null)
+                writer.write(extraData);
         }
 
         public int getSize() {
-            return 4 * 9;
+            return 4 * 9 + (extraData != null ? extraData.length : 0);
+        }
+
+        // Returns the config as it's written into Type chunks
+        public byte[] toByteArray() {
+            ByteBuffer ret = ByteBuffer.allocate(getSize());
+            try {
+                write(new DataWriter(ret));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return ret.array();
+        }
+
+        // The length of extraData without its trailing zeros, which are fields that are not set
+        private int getExtraDataLength() {
+            if (extraData == null)
+                return 0;
+            int ret = extraData.length;
+            while (ret > 0 && extraData[ret - 1] == 0)
+                ret--;
+            return ret;
+        }
+
+        // Configs are equal if they'd be treated the same by the platform; this includes the fields in extraData,
+        // but not whether those are present at all when none of them are set
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Config))
+                return false;
+            Config other = (Config) o;
+            if (imsi != other.imsi || screenType != other.screenType || input != other.input ||
+                    screenSize != other.screenSize || sdkVersion != other.sdkVersion ||
+                    minorVersion != other.minorVersion || screenConfig != other.screenConfig ||
+                    screenSizeDp != other.screenSizeDp || !language.equals(other.language) ||
+                    !country.equals(other.country))
+                return false;
+            int extraDataLength = getExtraDataLength();
+            if (extraDataLength != other.getExtraDataLength())
+                return false;
+            for (int i = 0; i < extraDataLength; i++) {
+                if (extraData[i] != other.extraData[i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int ret = imsi;
+            ret = ret * 31 + language.hashCode();
+            ret = ret * 31 + country.hashCode();
+            ret = ret * 31 + screenType;
+            ret = ret * 31 + input;
+            ret = ret * 31 + screenSize;
+            ret = ret * 31 + ((sdkVersion << 16) | (minorVersion & 0xffff));
+            ret = ret * 31 + screenConfig;
+            ret = ret * 31 + screenSizeDp;
+            int extraDataLength = getExtraDataLength();
+            for (int i = 0; i < extraDataLength; i++)
+                ret = ret * 31 + extraData[i];
+            return ret;
+        }
+
+        // The qualifiers in the order of their precedence when choosing between two matching configurations, the
+        // same order the platform uses. Fields of newer config versions (extraData) are not taken into account.
+        private static final int FIELD_MCC = 0;
+        private static final int FIELD_MNC = 1;
+        private static final int FIELD_LANGUAGE = 2;
+        private static final int FIELD_COUNTRY = 3;
+        private static final int FIELD_LAYOUT_DIR = 4;
+        private static final int FIELD_SMALLEST_WIDTH_DP = 5;
+        private static final int FIELD_WIDTH_DP = 6;
+        private static final int FIELD_HEIGHT_DP = 7;
+        private static final int FIELD_SCREEN_LAYOUT_SIZE = 8;
+        private static final int FIELD_SCREEN_LAYOUT_LONG = 9;
+        private static final int FIELD_ORIENTATION = 10;
+        private static final int FIELD_UI_MODE_TYPE = 11;
+        private static final int FIELD_UI_MODE_NIGHT = 12;
+        private static final int FIELD_DENSITY = 13;
+        private static final int FIELD_TOUCHSCREEN = 14;
+        private static final int FIELD_KEYS_HIDDEN = 15;
+        private static final int FIELD_KEYBOARD = 16;
+        private static final int FIELD_NAV_HIDDEN = 17;
+        private static final int FIELD_NAVIGATION = 18;
+        private static final int FIELD_SCREEN_WIDTH = 19;
+        private static final int FIELD_SCREEN_HEIGHT = 20;
+        private static final int FIELD_SDK_VERSION = 21;
+        private static final int FIELD_MINOR_VERSION = 22;
+        private static final int FIELD_COUNT = 23;
+
+        private static final int DENSITY_DEFAULT = 160;
+        private static final int DENSITY_ANY = 0xfffe;
+        private static final int KEYS_HIDDEN_NO = 1;
+        private static final int KEYS_HIDDEN_SOFT = 3;
+
+        private int getField(int field) {
+            switch (field) {
+                case FIELD_MCC: return imsi & 0xffff;
+                case FIELD_MNC: return imsi >>> 16;
+                case FIELD_LANGUAGE: return packChars(language);
+                case FIELD_COUNTRY: return packChars(country);
+                case FIELD_LAYOUT_DIR: return screenConfig & 0xc0;
+                case FIELD_SMALLEST_WIDTH_DP: return screenConfig >>> 16;
+                case FIELD_WIDTH_DP: return screenSizeDp & 0xffff;
+                case FIELD_HEIGHT_DP: return screenSizeDp >>> 16;
+                case FIELD_SCREEN_LAYOUT_SIZE: return screenConfig & 0x0f;
+                case FIELD_SCREEN_LAYOUT_LONG: return screenConfig & 0x30;
+                case FIELD_ORIENTATION: return screenType & 0xff;
+                case FIELD_UI_MODE_TYPE: return (screenConfig >>> 8) & 0x0f;
+                case FIELD_UI_MODE_NIGHT: return (screenConfig >>> 8) & 0x30;
+                case FIELD_DENSITY: return screenType >>> 16;
+                case FIELD_TOUCHSCREEN: return (screenType >>> 8) & 0xff;
+                case FIELD_KEYS_HIDDEN: return (input >>> 16) & 0x03;
+                case FIELD_KEYBOARD: return input & 0xff;
+                case FIELD_NAV_HIDDEN: return (input >>> 16) & 0x0c;
+                case FIELD_NAVIGATION: return (input >>> 8) & 0xff;
+                case FIELD_SCREEN_WIDTH: return screenSize & 0xffff;
+                case FIELD_SCREEN_HEIGHT: return screenSize >>> 16;
+                case FIELD_SDK_VERSION: return sdkVersion & 0xffff;
+                case FIELD_MINOR_VERSION: return minorVersion & 0xffff;
+                default: throw new IllegalArgumentException();
+            }
+        }
+
+        private static int packChars(String str) {
+            return ((str.charAt(0) & 0xff) << 8) | (str.charAt(1) & 0xff);
+        }
+
+        // Whether the field value of a resource config may be used when the device has the given value. A zero
+        // value means the qualifier is not set; the screen size and version qualifiers are minimums, which a device
+        // that doesn't set the field doesn't meet, and the others have to be equal to the device's value.
+        private static boolean matchField(int field, int value, int requested) {
+            if (value == 0)
+                return true;
+            switch (field) {
+                case FIELD_MCC:
+                case FIELD_MNC:
+                case FIELD_LANGUAGE:
+                case FIELD_COUNTRY:
+                    return value == requested;
+                case FIELD_DENSITY:
+                    return true;
+                case FIELD_SMALLEST_WIDTH_DP:
+                case FIELD_WIDTH_DP:
+                case FIELD_HEIGHT_DP:
+                case FIELD_SCREEN_LAYOUT_SIZE:
+                case FIELD_SCREEN_WIDTH:
+                case FIELD_SCREEN_HEIGHT:
+                case FIELD_SDK_VERSION:
+                    return value <= requested;
+                case FIELD_KEYS_HIDDEN:
+                    // like the platform, a resource for devices with a keyboard also matches a soft keyboard
+                    return value == requested || (value == KEYS_HIDDEN_NO && requested == KEYS_HIDDEN_SOFT);
+                default:
+                    return value == requested;
+            }
+        }
+
+        // Returns whether the resources in this configuration can be used on a device with the given configuration
+        public boolean match(Config requested) {
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                if (!matchField(i, getField(i), requested.getField(i)))
+                    return false;
+            }
+            return true;
+        }
+
+        // Returns whether this configuration is a better choice for the requested one than the other; both are
+        // expected to match it
+        public boolean isBetterThan(Config other, Config requested) {
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                int value = getField(i);
+                int otherValue = other.getField(i);
+                if (value == otherValue)
+                    continue;
+                if (i == FIELD_DENSITY)
+                    return isBetterDensity(value, otherValue, requested.getField(i));
+                if (requested.getField(i) == 0)
+                    continue;
+                // either only one of them is set, or both are minimums below the requested value
+                return value > otherValue;
+            }
+            return false;
+        }
+
+        // The density rule of the platform's ResTable_config::isBetterThan: anydpi always wins, otherwise a
+        // density that only has to be scaled down is preferred, and scaling down is taken to be twice as good as
+        // scaling up. nodpi is compared by its value, as the platform does.
+        private static boolean isBetterDensity(int density, int otherDensity, int requested) {
+            if (density == 0)
+                density = DENSITY_DEFAULT;
+            if (otherDensity == 0)
+                otherDensity = DENSITY_DEFAULT;
+            if (density == DENSITY_ANY)
+                return true;
+            if (otherDensity == DENSITY_ANY)
+                return false;
+            if (requested == 0 || requested == DENSITY_ANY)
+                requested = DENSITY_DEFAULT;
+            boolean bigger = density >= otherDensity;
+            int high = Math.max(density, otherDensity);
+            int low = Math.min(density, otherDensity);
+            if (requested >= high)
+                return bigger;
+            if (low >= requested)
+                return !bigger;
+            // the platform computes this in int, long only avoids the overflow for densities past 0x8000
+            if ((2L * low - requested) * high > (long) requested * requested)
+                return !bigger;
+            return bigger;
         }
 
     }
@@ -279,7 +939,20 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
                 super(chunk);
             }
 
-            public void collectKeyStrings(Set<String> publicKeys, Set<String> privateKeys) {
+            public void collectKeyStrings(DataWritePreparer preparer, Set<String> publicKeys,
+                                          Set<String> privateKeys) {
+            }
+
+            public void remapGlobalStrings(int[] map) {
+            }
+
+            public int getEntryCount() {
+                return 0;
+            }
+
+            // The number of entries that share the data of another one
+            public int getDeduplicatedEntryCount() {
+                return 0;
             }
 
         }
@@ -329,8 +1002,7 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
             @Override
             public void writeBody(DataWriter writer) throws IOException {
-                for (int flags : chunk.flags)
-                    writer.writeInt(flags);
+                writer.writeInts(chunk.flags);
             }
 
             @Override
@@ -349,9 +1021,20 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
     public static class Type extends TypeBase {
 
+        public static final int FLAG_SPARSE = 0x01;
+        public static final int FLAG_OFFSET16 = 0x02;
+
+        private static final int MAX_SPARSE_ENTRY_ID = 0xFFFF;
+        // both the sparse and the 16-bit offsets are stored divided by 4, and 0xFFFF means no entry in the latter
+        private static final int MAX_SHORT_OFFSET_ENTRY_DATA_SIZE = 0xFFFF * 4;
+        private static final int NO_ENTRY_OFFSET16 = 0xFFFF;
+        // to be changed whenever the serialized form of the same content changes
+        private static final String CACHE_KEY_VERSION = "type-1";
+
         public int id;
         public Config config;
         public List<EntryBase> entries;
+        private Iterable<? extends EntryBase> entrySource;
 
         public Type(int id, Config config) {
             this.id = id;
@@ -364,15 +1047,168 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
             this.entries.add(entry);
         }
 
+        // Makes the writer pull the entries from the source instead of the entries list. The source is iterated
+        // once per write phase and must return the same entries in the same order every time; no entry or entry
+        // writer is kept alive in between.
+        public void setEntrySource(Iterable<? extends EntryBase> source) {
+            this.entries = null;
+            this.entrySource = source;
+        }
+
+        public Iterable<? extends EntryBase> getEntrySource() {
+            return entrySource;
+        }
+
         @Override
         public TypeBase.Writer createWriter(Package.Writer packageWriter) {
+            if (entrySource != null)
+                return new StreamingWriter(this, packageWriter);
             return new Writer(this, packageWriter);
         }
 
+        // Chooses the encoding of the offset table of a type with the given entries, according to the settings
+        public static int chooseFlags(DataWritePreparer preparer, int entryCount, int maxEntryId,
+                                      int entryDataSize) {
+            if (entryDataSize > MAX_SHORT_OFFSET_ENTRY_DATA_SIZE)
+                return 0;
+            float threshold = preparer.getSparseTypeThreshold();
+            if (threshold > 0 && entryCount < threshold * (maxEntryId + 1) && maxEntryId <= MAX_SPARSE_ENTRY_ID)
+                return FLAG_SPARSE;
+            if (preparer.isOffset16Enabled())
+                return FLAG_OFFSET16;
+            return 0;
+        }
+
+        private static int getOffsetTableSize(int flags, int offsetCount) {
+            if ((flags & FLAG_OFFSET16) != 0)
+                return (offsetCount * 2 + 3) / 4 * 4;
+            return offsetCount * 4;
+        }
+
+        // Writes the offset table of a non-sparse type, offsets of missing entries are expected to be -1
+        private static void writeDenseOffsets(DataWriter writer, int flags, int[] offsets) throws IOException {
+            if ((flags & FLAG_OFFSET16) == 0) {
+                writer.writeInts(offsets);
+                return;
+            }
+            int[] packed = new int[(offsets.length + 1) / 2];
+            for (int i = 0; i < offsets.length; i++) {
+                int value = (offsets[i] == -1 ? NO_ENTRY_OFFSET16 : offsets[i] / 4);
+                packed[i / 2] |= value << ((i % 2) * 16);
+            }
+            writer.writeInts(packed);
+        }
+
+        // Finds entries of a type that serialize to the same bytes. This is done during prepare, where the global
+        // string indices may still be local to a shard; the mapping to the final indices is one to one, so
+        // entries that are identical before it are identical after it as well.
+        private static class EntryDeduplicator {
+
+            private final ObjectIntMap<ByteBuffer> offsets = new ObjectIntMap<>();
+
+            // Returns the offset of an earlier identical entry, or -1 after remembering this one at the offset
+            int findOrAdd(EntryBase.Writer entry, int size, int offset) {
+                ByteBuffer data = ByteBuffer.allocate(size);
+                try {
+                    entry.write(new DataWriter(data));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                data.flip();
+                int existing = offsets.putIfAbsent(data, offset);
+                return existing != offset ? existing : -1;
+            }
+
+        }
+
+        // Returns the (id, offset) pairs of the entries packed into longs, sorted by the entry id
+        private static long[] sortOffsets(int[] ids, int[] offsets, int count) {
+            long[] sorted = new long[count];
+            for (int i = 0; i < count; i++)
+                sorted[i] = ((long) ids[i] << 32) | offsets[i];
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        // Writes the (id, offset / 4) pairs of a sparse type, sorted by the entry id
+        private static void writeSparseOffsets(DataWriter writer, int[] ids, int[] offsets, int count)
+                throws IOException {
+            long[] sorted = sortOffsets(ids, offsets, count);
+            int[] pairs = new int[count];
+            for (int i = 0; i < count; i++)
+                pairs[i] = (int) (sorted[i] >>> 32) | (((int) sorted[i] / 4) << 16);
+            writer.writeInts(pairs);
+        }
+
+        // Writes the offset table of a non-sparse type from the ids and offsets of its entries, one offset at a
+        // time, so that it takes no memory proportional to the highest entry id
+        private static void writeDenseOffsets(DataWriter writer, int flags, int[] ids, int[] offsets, int count,
+                                              int offsetCount) throws IOException {
+            long[] sorted = sortOffsets(ids, offsets, count);
+            boolean offset16 = (flags & FLAG_OFFSET16) != 0;
+            int next = 0;
+            for (int id = 0; id < offsetCount; id++) {
+                int offset = -1;
+                while (next < count && (int) (sorted[next] >>> 32) == id)
+                    offset = (int) sorted[next++];
+                if (offset16)
+                    writer.writeShort(offset == -1 ? NO_ENTRY_OFFSET16 : offset / 4);
+                else
+                    writer.writeInt(offset);
+            }
+            if (offset16 && offsetCount % 2 != 0)
+                writer.writeShort(0);
+        }
+
+        // The number of entries of a serialized Type chunk that share the data of an earlier one
+        private static int countSharedEntries(byte[] data) {
+            ByteBuffer chunk = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            int headerSize = chunk.getShort(2) & 0xffff;
+            int flags = chunk.get(9) & 0xff;
+            int offsetCount = chunk.getInt(12);
+            BitSet seen = new BitSet();
+            int ret = 0;
+            for (int i = 0; i < offsetCount; i++) {
+                int offset;
+                if ((flags & FLAG_SPARSE) != 0) {
+                    offset = (chunk.getInt(headerSize + i * 4) >>> 16) * 4;
+                } else if ((flags & FLAG_OFFSET16) != 0) {
+                    int value = chunk.getShort(headerSize + i * 2) & 0xffff;
+                    offset = value == NO_ENTRY_OFFSET16 ? -1 : value * 4;
+                } else {
+                    offset = chunk.getInt(headerSize + i * 4);
+                }
+                if (offset == -1)
+                    continue;
+                if (seen.get(offset / 4))
+                    ret++;
+                else
+                    seen.set(offset / 4);
+            }
+            return ret;
+        }
+
         public static class Writer extends TypeBase.Writer<Type> {
 
+            // the layout is a flat table with a row per entry, in entry id order
+            private static final int LAYOUT_ID = 0;
+            private static final int LAYOUT_WRITER = 1; // index in entryWriters
+            private static final int LAYOUT_OFFSET = 2;
+            private static final int LAYOUT_SIZE = 3; // 0 for entries that reuse the data of an earlier one
+            private static final int LAYOUT_STRIDE = 4;
+
             private List<EntryBase.Writer> entryWriters = new ArrayList<>();
             private int maxEntryId = -1;
+            private int typeFlags;
+            private int[] layout;
+            private int entryDataSize;
+            // with a cache the layout is only planned once the global string indices are final, on a miss
+            private TypeChunkCache cache;
+            private DataWritePreparer settings;
+            private String cacheKey;
+            private byte[] cachedChunk;
+            private WriteListener listener;
+            private int deduplicatedEntryCount;
 
             public Writer(Type chunk, Package.Writer packageWriter) {
                 super(chunk);
@@ -383,7 +1219,8 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
             }
 
             @Override
-            public void collectKeyStrings(Set<String> publicKeys, Set<String> privateKeys) {
+            public void collectKeyStrings(DataWritePreparer preparer, Set<String> publicKeys,
+                                          Set<String> privateKeys) {
                 for (EntryBase.Writer child : entryWriters) {
                     if ((child.getEntry().flags & Entry.FLAG_PUBLIC) != 0)
                         publicKeys.add(child.getEntry().key);
@@ -392,31 +1229,150 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
                 }
             }
 
-            private void updateMaxEntryId() {
-                maxEntryId = -1;
-                for (EntryBase.Writer child : entryWriters) {
-                    int eid = child.getEntry().id;
-                    if (eid > maxEntryId)
-                        maxEntryId = eid;
+            @Override
+            public void prepare(DataWritePreparer preparer) throws IOException {
+                super.prepare(preparer);
+                // the strings are added in list order, so that the pool doesn't depend on the entry ids
+                for (EntryBase.Writer child : entryWriters)
+                    child.prepare(preparer);
+                layout = null;
+                cachedChunk = null;
+                listener = preparer.getWriteListener();
+                cache = preparer.getTypeChunkCache();
+                if (cache != null)
+                    settings = new DataWritePreparer(preparer);
+                else
+                    planLayout(preparer);
+            }
+
+            private void ensureLayout() {
+                if (layout != null || cachedChunk != null)
+                    return;
+                cacheKey = computeCacheKey();
+                try {
+                    cachedChunk = cache.get(cacheKey);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                if (cachedChunk != null && !isValidChunk(cachedChunk))
+                    cachedChunk = null;
+                if (listener != null)
+                    listener.onTypeChunkCacheLookup(chunk.id, chunk.config, cachedChunk != null);
+                // the layout isn't planned on a hit, but the offsets of the cached chunk tell the same
+                if (cachedChunk == null)
+                    planLayout(settings);
+                else
+                    deduplicatedEntryCount = countSharedEntries(cachedChunk);
+            }
+
+            private boolean isValidChunk(byte[] data) {
+                if (data.length < getHeaderSize())
+                    return false;
+                ByteBuffer header = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+                return header.getShort(0) == TYPE_TABLE_TYPE && header.getShort(2) == getHeaderSize() &&
+                        header.getInt(4) == data.length;
+            }
+
+            // Covers everything the serialized chunk depends on: the settings, the chunk header and every entry
+            // with its key and value data as it would be written
+            private String computeCacheKey() {
+                ContentDigest digest = new ContentDigest();
+                digest.putString(CACHE_KEY_VERSION);
+                digest.putInt(Float.floatToIntBits(settings.getSparseTypeThreshold()));
+                digest.putInt(settings.isOffset16Enabled() ? 1 : 0);
+                digest.putInt(settings.isCompactEntriesEnabled() ? 1 : 0);
+                digest.putInt(settings.isEntryDeduplicationEnabled() ? 1 : 0);
+                digest.putInt(chunk.id);
+                byte[] config = chunk.config.toByteArray();
+                digest.putBytes(config, 0, config.length);
+                digest.putInt(entryWriters.size());
+                for (EntryBase.Writer child : entryWriters)
+                    child.updateDigest(digest);
+                return digest.toHexString();
+            }
+
+            // Orders the entries by their id and assigns each its offset, asking every entry for its size
+            // exactly once. Both the header and the serialization are driven by the resulting table.
+            private void planLayout(DataWritePreparer preparer) {
+                int n = entryWriters.size();
+                long[] order = new long[n];
+                for (int i = 0; i < n; i++)
+                    order[i] = ((long) entryWriters.get(i).getEntry().id << 32) | i;
+                Arrays.sort(order);
+                EntryDeduplicator deduplicator = preparer.isEntryDeduplicationEnabled()
+                        ? new EntryDeduplicator() : null;
+                layout = new int[n * LAYOUT_STRIDE];
+                entryDataSize = 0;
+                deduplicatedEntryCount = 0;
+                for (int i = 0, row = 0; i < n; i++, row += LAYOUT_STRIDE) {
+                    int index = (int) order[i];
+                    EntryBase.Writer child = entryWriters.get(index);
+                    int size = child.getTotalSize();
+                    layout[row + LAYOUT_ID] = (int) (order[i] >>> 32);
+                    layout[row + LAYOUT_WRITER] = index;
+                    if (deduplicator != null) {
+                        int existing = deduplicator.findOrAdd(child, size, entryDataSize);
+                        if (existing != -1) {
+                            layout[row + LAYOUT_OFFSET] = existing;
+                            deduplicatedEntryCount++;
+                            continue;
+                        }
+                    }
+                    layout[row + LAYOUT_OFFSET] = entryDataSize;
+                    layout[row + LAYOUT_SIZE] = size;
+                    entryDataSize += size;
                 }
+                maxEntryId = n > 0 ? layout[(n - 1) * LAYOUT_STRIDE + LAYOUT_ID] : -1;
+                typeFlags = chooseFlags(preparer, n, maxEntryId, entryDataSize);
             }
 
             @Override
-            public void prepare(DataWritePreparer preparer) {
-                super.prepare(preparer);
-                updateMaxEntryId();
+            public void remapGlobalStrings(int[] map) {
                 for (EntryBase.Writer child : entryWriters)
-                    child.prepare(preparer);
+                    child.remapGlobalStrings(map);
+            }
+
+            private int getOffsetCount() {
+                return (typeFlags & FLAG_SPARSE) != 0 ? entryWriters.size() : maxEntryId + 1;
+            }
+
+            @Override
+            public int getEntryCount() {
+                return entryWriters.size();
+            }
+
+            @Override
+            public int getDeduplicatedEntryCount() {
+                return deduplicatedEntryCount;
             }
 
             @Override
             public void writeHeader(DataWriter writer) throws IOException {
+                if (cache == null) {
+                    writeChunkHeader(writer);
+                    return;
+                }
+                // the whole chunk is written here, either straight from the cache or serialized into it first
+                ensureLayout();
+                if (cachedChunk == null) {
+                    byte[] data = new byte[getTotalSize()];
+                    DataWriter chunkWriter = new DataWriter(ByteBuffer.wrap(data));
+                    writeChunkHeader(chunkWriter);
+                    writeEntries(chunkWriter);
+                    cache.put(cacheKey, data);
+                    cachedChunk = data;
+                }
+                writer.write(cachedChunk);
+                cachedChunk = null;
+            }
+
+            private void writeChunkHeader(DataWriter writer) throws IOException {
                 super.writeHeader(writer);
                 writer.writeByte(chunk.id);
-                writer.writeByte(0);
+                writer.writeByte(typeFlags);
                 writer.writeShort(0);
-                writer.writeInt(maxEntryId + 1);
-                writer.writeInt(getHeaderSize() + (maxEntryId + 1) * 4);
+                writer.writeInt(getOffsetCount());
+                writer.writeInt(getHeaderSize() + getOffsetTableSize(typeFlags, getOffsetCount()));
                 chunk.config.write(writer);
             }
 
@@ -427,28 +1383,246 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
             @Override
             public void writeBody(DataWriter writer) throws IOException {
-                EntryBase.Writer[] entriesById = new EntryBase.Writer[maxEntryId + 1];
-                for (EntryBase.Writer entry : entryWriters)
-                    entriesById[entry.getEntry().id] = entry;
-                int off = 0;
-                for (int i = 0; i <= maxEntryId; i++) {
-                    if (entriesById[i] != null) {
-                        writer.writeInt(off);
-                        off += entriesById[i].getTotalSize();
-                    } else {
-                        writer.writeInt(-1);
+                if (cache == null)
+                    writeEntries(writer);
+            }
+
+            private void writeEntries(DataWriter writer) throws IOException {
+                int n = entryWriters.size();
+                if ((typeFlags & FLAG_SPARSE) != 0) {
+                    int[] pairs = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        int row = i * LAYOUT_STRIDE;
+                        pairs[i] = layout[row + LAYOUT_ID] | ((layout[row + LAYOUT_OFFSET] / 4) << 16);
                     }
+                    writer.writeInts(pairs);
+                } else {
+                    int[] offsets = new int[maxEntryId + 1];
+                    Arrays.fill(offsets, -1);
+                    for (int row = 0; row < layout.length; row += LAYOUT_STRIDE)
+                        offsets[layout[row + LAYOUT_ID]] = layout[row + LAYOUT_OFFSET];
+                    writeDenseOffsets(writer, typeFlags, offsets);
+                }
+                for (int row = 0; row < layout.length; row += LAYOUT_STRIDE) {
+                    if (layout[row + LAYOUT_SIZE] != 0)
+                        entryWriters.get(layout[row + LAYOUT_WRITER]).write(writer);
                 }
-                for (EntryBase.Writer entry : entryWriters)
-                    entry.write(writer);
             }
 
             @Override
             public int calculateBodySize() {
-                int ret = (maxEntryId + 1) * 4;
-                for (EntryBase.Writer entry : entryWriters)
-                    ret += entry.getTotalSize();
-                return ret;
+                if (cache != null) {
+                    ensureLayout();
+                    if (cachedChunk != null)
+                        return cachedChunk.length - getHeaderSize();
+                }
+                return getOffsetTableSize(typeFlags, getOffsetCount()) + entryDataSize;
+            }
+
+        }
+
+        // Writer used for types backed by an entry source. It goes over the source once to collect the keys,
+        // strings and sizes and once more to serialize it, creating short lived entry writers each time. The
+        // global string indices handed out in the first pass are recorded in order and replayed in the second one.
+        public static class StreamingWriter extends TypeBase.Writer<Type> {
+
+            private final Package.Writer packageWriter;
+            private int maxEntryId = -1;
+            private int entryCount;
+            private int[] entryIds = new int[16];
+            private int[] entryOffsets = new int[16];
+            private BitSet duplicateEntries;
+            private int entryDataSize;
+            private int[] stringRefs = new int[16];
+            private int stringRefCount;
+            // the distinct strings of the entries, until they are added to the global pool in prepare
+            private List<String> strings;
+            private int typeFlags;
+            private DataWritePreparer settings;
+
+            public StreamingWriter(Type chunk, Package.Writer packageWriter) {
+                super(chunk);
+                this.packageWriter = packageWriter;
+            }
+
+            // The first pass runs before the key pool is built, and before the strings can be added to the global
+            // pool, which is only set (or sharded) for the prepare of the types. So the entries are prepared with
+            // provisional key and string indices, one per distinct key or string. The final ones map to them one
+            // to one, so the entries that are identical stay so, and the sizes only depend on whether the key
+            // indices fit in the compact form, which is checked in prepare.
+            @Override
+            public void collectKeyStrings(DataWritePreparer preparer, final Set<String> publicKeys,
+                                          final Set<String> privateKeys) {
+                Package.Writer keyRecorder = new Package.Writer(packageWriter.chunk,
+                        Collections.<TypeBase>emptyList(), null) {
+                    private final ObjectIntMap<String> publicKeyIndices = new ObjectIntMap<>();
+                    private final ObjectIntMap<String> privateKeyIndices = new ObjectIntMap<>();
+                    private int keyCount;
+
+                    @Override
+                    protected int getKeyIndex(String key, boolean isPublic) {
+                        (isPublic ? publicKeys : privateKeys).add(key);
+                        int index = (isPublic ? publicKeyIndices : privateKeyIndices).putIfAbsent(key, keyCount);
+                        if (index == keyCount)
+                            keyCount++;
+                        return index;
+                    }
+                };
+                final ObjectIntMap<String> stringIndices = new ObjectIntMap<>();
+                strings = new ArrayList<>();
+                DataWritePreparer recorder = new DataWritePreparer(preparer) {
+                    @Override
+                    public int appendGlobalString(String text) {
+                        int index = stringIndices.putIfAbsent(text, strings.size());
+                        if (index == strings.size())
+                            strings.add(text);
+                        addStringRef(index);
+                        return index;
+                    }
+                };
+                prepareEntries(preparer, recorder, keyRecorder);
+            }
+
+            private void addStringRef(int index) {
+                if (stringRefCount == stringRefs.length)
+                    stringRefs = Arrays.copyOf(stringRefs, stringRefs.length * 2);
+                stringRefs[stringRefCount++] = index;
+            }
+
+            private void addEntry(int id, int offset) {
+                if (entryCount == entryIds.length) {
+                    entryIds = Arrays.copyOf(entryIds, entryCount * 2);
+                    entryOffsets = Arrays.copyOf(entryOffsets, entryCount * 2);
+                }
+                entryIds[entryCount] = id;
+                entryOffsets[entryCount] = offset;
+                entryCount++;
+            }
+
+            @Override
+            public void prepare(final DataWritePreparer preparer) throws IOException {
+                super.prepare(preparer);
+                // all provisional key indices fit in 16 bits, but with more keys than that in the package the
+                // final ones may not, which changes the sizes of compact entries; prepare them again in that case
+                if (preparer.isCompactEntriesEnabled() && packageWriter.keysPool.stringOffsets.length > 0x10000) {
+                    strings = null;
+                    DataWritePreparer recorder = new DataWritePreparer(preparer) {
+                        @Override
+                        public int appendGlobalString(String text) {
+                            int index = preparer.appendGlobalString(text);
+                            addStringRef(index);
+                            return index;
+                        }
+                    };
+                    prepareEntries(preparer, recorder, packageWriter);
+                    return;
+                }
+                // the strings are appended once per use, in the order of the source, as the entries would do
+                for (int i = 0; i < stringRefCount; i++)
+                    stringRefs[i] = preparer.appendGlobalString(strings.get(stringRefs[i]));
+                strings = null;
+            }
+
+            private void prepareEntries(DataWritePreparer preparer, DataWritePreparer recorder,
+                                        Package.Writer keys) {
+                settings = new DataWritePreparer(preparer);
+                EntryDeduplicator deduplicator = preparer.isEntryDeduplicationEnabled()
+                        ? new EntryDeduplicator() : null;
+                maxEntryId = -1;
+                entryCount = 0;
+                entryDataSize = 0;
+                stringRefCount = 0;
+                duplicateEntries = new BitSet();
+                for (EntryBase entry : chunk.entrySource) {
+                    EntryBase.Writer child = entry.createWriter(keys);
+                    child.prepare(recorder);
+                    if (entry.id > maxEntryId)
+                        maxEntryId = entry.id;
+                    int size = child.getTotalSize();
+                    if (deduplicator != null) {
+                        int existing = deduplicator.findOrAdd(child, size, entryDataSize);
+                        if (existing != -1) {
+                            duplicateEntries.set(entryCount);
+                            addEntry(entry.id, existing);
+                            continue;
+                        }
+                    }
+                    // the entries can only be written in the order of the source, so the offsets follow it
+                    addEntry(entry.id, entryDataSize);
+                    entryDataSize += size;
+                }
+                typeFlags = chooseFlags(preparer, entryCount, maxEntryId, entryDataSize);
+            }
+
+            @Override
+            public void remapGlobalStrings(int[] map) {
+                for (int i = 0; i < stringRefCount; i++)
+                    stringRefs[i] = map[stringRefs[i]];
+            }
+
+            private int getOffsetCount() {
+                return (typeFlags & FLAG_SPARSE) != 0 ? entryCount : maxEntryId + 1;
+            }
+
+            @Override
+            public int getEntryCount() {
+                return entryCount;
+            }
+
+            @Override
+            public int getDeduplicatedEntryCount() {
+                return duplicateEntries.cardinality();
+            }
+
+            @Override
+            public void writeHeader(DataWriter writer) throws IOException {
+                super.writeHeader(writer);
+                writer.writeByte(chunk.id);
+                writer.writeByte(typeFlags);
+                writer.writeShort(0);
+                writer.writeInt(getOffsetCount());
+                writer.writeInt(getHeaderSize() + getOffsetTableSize(typeFlags, getOffsetCount()));
+                chunk.config.write(writer);
+            }
+
+            @Override
+            public int getHeaderSize() {
+                return super.getHeaderSize() + 12 + chunk.config.getSize();
+            }
+
+            @Override
+            public void writeBody(DataWriter writer) throws IOException {
+                if ((typeFlags & FLAG_SPARSE) != 0) {
+                    writeSparseOffsets(writer, entryIds, entryOffsets, entryCount);
+                } else {
+                    writeDenseOffsets(writer, typeFlags, entryIds, entryOffsets, entryCount, maxEntryId + 1);
+                }
+                DataWritePreparer replayer = new DataWritePreparer(settings) {
+                    private int next = 0;
+
+                    @Override
+                    public int appendGlobalString(String text) {
+                        return stringRefs[next++];
+                    }
+                };
+                int written = 0;
+                int index = 0;
+                for (EntryBase entry : chunk.entrySource) {
+                    EntryBase.Writer child = entry.createWriter(packageWriter);
+                    // duplicates still need to be prepared to consume their recorded strings
+                    child.prepare(replayer);
+                    if (!duplicateEntries.get(index++)) {
+                        child.write(writer);
+                        written += child.getTotalSize();
+                    }
+                }
+                if (written != entryDataSize)
+                    throw new IOException("the entry source of type " + chunk.id + " changed while writing");
+            }
+
+            @Override
+            public int calculateBodySize() {
+                return getOffsetTableSize(typeFlags, getOffsetCount()) + entryDataSize;
             }
 
         }
@@ -464,6 +1638,7 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
         public static final int FLAG_COMPLEX = 1;
         public static final int FLAG_PUBLIC = 2;
+        public static final int FLAG_COMPACT = 8;
 
         public int id;
         public short flags;
@@ -487,6 +1662,7 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
             protected T entry;
             private Package.Writer packageWriter;
+            private int keyIndex = -1;
 
             public Writer(T entry, Package.Writer packageWriter) {
                 this.entry = entry;
@@ -498,15 +1674,29 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
             }
 
             public void prepare(DataWritePreparer writer) {
+                // the key pool is built before any of the types get prepared
+                keyIndex = packageWriter.getKeyIndex(entry.key, (entry.flags & FLAG_PUBLIC) != 0);
+            }
+
+            public void remapGlobalStrings(int[] map) {
+            }
+
+            protected int getKeyIndex() {
+                return keyIndex;
+            }
+
+            // Adds everything the serialized entry depends on to the digest; the global string indices are
+            // expected to be final
+            public void updateDigest(ContentDigest digest) {
+                digest.putInt(entry.id);
+                digest.putInt(entry.flags);
+                digest.putInt(keyIndex);
             }
 
             public void write(DataWriter writer) throws IOException {
                 writer.writeShort(getHeaderSize());
                 writer.writeShort(entry.flags);
-                Map<String, Integer> keyTable = (entry.flags & FLAG_PUBLIC) != 0
-                        ? packageWriter.publicKeysIdx : packageWriter.privateKeysIdx;
-                //noinspection ConstantConditions
-                writer.writeInt(keyTable.get(entry.key));
+                writer.writeInt(getKeyIndex());
             }
 
             public int getHeaderSize() {
@@ -535,6 +1725,10 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
             this(id, key, value, false);
         }
 
+        public ResValue getValue() {
+            return value;
+        }
+
         @Override
         public Writer createWriter(Package.Writer packageWriter) {
             return new Writer(this, packageWriter);
@@ -543,6 +1737,7 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
         public static class Writer extends EntryBase.Writer<Entry> {
 
             private ResValue.Writer valueWriter;
+            private boolean compact;
 
             public Writer(Entry entry, Package.Writer packageWriter) {
                 super(entry, packageWriter);
@@ -551,17 +1746,42 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
             @Override
             public void prepare(DataWritePreparer writer) {
+                super.prepare(writer);
                 valueWriter.prepare(writer);
+                // the compact form only has room for a 16-bit key index, 8 bits of flags and the value's data
+                compact = writer.isCompactEntriesEnabled() && (entry.flags & ~0xff) == 0 &&
+                        valueWriter.getTotalSize() == 8 && getKeyIndex() <= 0xffff &&
+                        valueWriter.getDataType() != ResValue.Writer.DATA_TYPE_UNKNOWN;
+            }
+
+            @Override
+            public void remapGlobalStrings(int[] map) {
+                valueWriter.remapGlobalStrings(map);
+            }
+
+            @Override
+            public void updateDigest(ContentDigest digest) {
+                super.updateDigest(digest);
+                digest.putInt(compact ? 1 : 0);
+                valueWriter.updateDigest(digest);
             }
 
             @Override
             public void write(DataWriter writer) throws IOException {
+                if (compact) {
+                    writer.writeShort(getKeyIndex());
+                    writer.writeShort((valueWriter.getDataType() << 8) | entry.flags | FLAG_COMPACT);
+                    writer.writeInt(valueWriter.getData());
+                    return;
+                }
                 super.write(writer);
                 valueWriter.write(writer);
             }
 
             @Override
             public int getTotalSize() {
+                if (compact)
+                    return 8;
                 return super.getTotalSize() + valueWriter.getTotalSize();
             }
         }
@@ -606,6 +1826,7 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
         public static class Writer extends EntryBase.Writer<MapEntry> {
 
             private ResValue.Writer[] valueWriters;
+            private int totalSize = -1;
 
             public Writer(MapEntry entry, Package.Writer packageWriter) {
                 super(entry, packageWriter);
@@ -616,8 +1837,27 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
             @Override
             public void prepare(DataWritePreparer writer) {
+                super.prepare(writer);
                 for (ResValue.Writer valueWriter : valueWriters)
                     valueWriter.prepare(writer);
+                totalSize = -1;
+            }
+
+            @Override
+            public void remapGlobalStrings(int[] map) {
+                for (ResValue.Writer valueWriter : valueWriters)
+                    valueWriter.remapGlobalStrings(map);
+            }
+
+            @Override
+            public void updateDigest(ContentDigest digest) {
+                super.updateDigest(digest);
+                digest.putInt(entry.parent);
+                digest.putInt(valueWriters.length);
+                for (int i = 0; i < valueWriters.length; i++) {
+                    digest.putInt(entry.value.get(i).name);
+                    valueWriters[i].updateDigest(digest);
+                }
             }
 
             @Override
@@ -640,12 +1880,12 @@ public class ResTable extends ResChunk implements ResChunk.RootChunk {
 
             @Override
             public int getTotalSize() {
+                if (totalSize != -1)
+                    return totalSize;
                 int res = getHeaderSize();
-                int n = entry.value.size();
-                for (int i = 0; i < n; i++) {
-                    res += 4;
-                    res += valueWriters[i].getTotalSize();
-                }
+                for (ResValue.Writer valueWriter : valueWriters)
+                    res += 4 + valueWriter.getTotalSize();
+                totalSize = res;
                 return res;
             }
         }
@@ -1,10 +1,12 @@
 package io.mrarm.arsc.chunks;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import io.mrarm.arsc.DataWritePreparer;
 import io.mrarm.arsc.DataWriter;
 import io.mrarm.arsc.FragmentWriter;
+import io.mrarm.arsc.util.ContentDigest;
 
 public abstract class ResValue {
 
@@ -20,6 +22,9 @@ public abstract class ResValue {
 
     public abstract static class Writer<T extends ResValue> implements FragmentWriter {
 
+        // returned by getDataType for values that are not a single Res_value
+        public static final int DATA_TYPE_UNKNOWN = -1;
+
         protected T value;
 
         public Writer(T value) {
@@ -30,6 +35,38 @@ public abstract class ResValue {
         public void prepare(DataWritePreparer preparer) {
         }
 
+        // Called when the global string indices handed out during prepare were local to a pool shard
+        public void remapGlobalStrings(int[] map) {
+        }
+
+        // The type and data of the serialized Res_value, which entries in the compact encoding store in place of
+        // the value. Entries of values that don't report them are always written in full.
+        public int getDataType() {
+            return DATA_TYPE_UNKNOWN;
+        }
+
+        public int getData() {
+            return 0;
+        }
+
+        // Adds everything the serialized value depends on to the digest. Values that don't report their type
+        // and data are serialized for it.
+        public void updateDigest(ContentDigest digest) {
+            digest.putInt(getTotalSize());
+            if (getDataType() != DATA_TYPE_UNKNOWN) {
+                digest.putInt(getDataType());
+                digest.putInt(getData());
+                return;
+            }
+            ByteBuffer data = ByteBuffer.allocate(getTotalSize());
+            try {
+                write(new DataWriter(data));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            digest.putBytes(data.array(), 0, data.position());
+        }
+
     }
 
 
@@ -63,6 +100,16 @@ public abstract class ResValue {
                 writer.writeInt(value.data);
             }
 
+            @Override
+            public int getDataType() {
+                return value.dataType & 0xff;
+            }
+
+            @Override
+            public int getData() {
+                return value.data;
+            }
+
             @Override
             public int getTotalSize() {
                 return 8;
@@ -117,6 +164,11 @@ public abstract class ResValue {
                 stringId = preparer.appendGlobalString(value.data);
             }
 
+            @Override
+            public void remapGlobalStrings(int[] map) {
+                stringId = map[stringId];
+            }
+
             @Override
             public void write(DataWriter writer) throws IOException {
                 writer.writeShort(getTotalSize());
@@ -125,6 +177,16 @@ public abstract class ResValue {
                 writer.writeInt(stringId);
             }
 
+            @Override
+            public int getDataType() {
+                return TYPE_STRING;
+            }
+
+            @Override
+            public int getData() {
+                return stringId;
+            }
+
             @Override
             public int getTotalSize() {
                 return 8;
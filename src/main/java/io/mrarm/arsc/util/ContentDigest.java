@@ -0,0 +1,67 @@
+package io.mrarm.arsc.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Computes a SHA-256 digest over a sequence of ints and bytes, buffering them so that the underlying digest is
+// only updated in larger blocks.
+public class ContentDigest {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[4096];
+    private int bufferSize;
+
+    public ContentDigest() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support it
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void putInt(int v) {
+        if (bufferSize + 4 > buffer.length)
+            flushBuffer();
+        buffer[bufferSize++] = (byte) v;
+        buffer[bufferSize++] = (byte) (v >> 8);
+        buffer[bufferSize++] = (byte) (v >> 16);
+        buffer[bufferSize++] = (byte) (v >> 24);
+    }
+
+    public void putBytes(byte[] data, int off, int len) {
+        flushBuffer();
+        digest.update(data, off, len);
+    }
+
+    public void putString(String str) {
+        putInt(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            if (bufferSize + 2 > buffer.length)
+                flushBuffer();
+            char c = str.charAt(i);
+            buffer[bufferSize++] = (byte) c;
+            buffer[bufferSize++] = (byte) (c >> 8);
+        }
+    }
+
+    private void flushBuffer() {
+        digest.update(buffer, 0, bufferSize);
+        bufferSize = 0;
+    }
+
+    // Finishes the digest and returns it as a lower case hex string
+    public String toHexString() {
+        flushBuffer();
+        byte[] hash = digest.digest();
+        char[] ret = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            ret[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            ret[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(ret);
+    }
+
+}
@@ -0,0 +1,105 @@
+package io.mrarm.arsc.util;
+
+import java.util.Arrays;
+
+// An open addressing hash map from int keys to int values, with linear probing. Neither keys nor values are
+// boxed, so lookups don't allocate.
+public class IntIntMap {
+
+    private static final int FREE_KEY = 0;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+    // key 0 marks free slots, so its value is kept aside
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public IntIntMap() {
+        this(8);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY)
+            return hasZeroKey;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return true;
+            if (keys[i] == FREE_KEY)
+                return false;
+        }
+    }
+
+    public int get(int key, int defaultValue) {
+        if (key == FREE_KEY)
+            return hasZeroKey ? zeroValue : defaultValue;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+            if (keys[i] == FREE_KEY)
+                return defaultValue;
+        }
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            if (!hasZeroKey)
+                size++;
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int i = hash(key) & mask;
+        for (; keys[i] != FREE_KEY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == FREE_KEY)
+                continue;
+            int j = hash(oldKeys[i]) & mask;
+            while (keys[j] != FREE_KEY)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package io.mrarm.arsc.util;
+
+import java.util.Arrays;
+
+// A growable list of ints, backed by a plain int array.
+public class IntList {
+
+    private int[] data;
+    private int size;
+
+    public IntList(int initialCapacity) {
+        data = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public IntList() {
+        this(16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        return data[index];
+    }
+
+    public void set(int index, int value) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        data[index] = value;
+    }
+
+    public void add(int value) {
+        if (size == data.length)
+            data = Arrays.copyOf(data, size * 2);
+        data[size++] = value;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+}
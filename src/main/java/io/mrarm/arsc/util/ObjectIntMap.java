@@ -0,0 +1,116 @@
+package io.mrarm.arsc.util;
+
+import java.util.Arrays;
+
+// An open addressing hash map from object keys to int values, with linear probing. Values are not boxed; null
+// keys are not supported.
+public class ObjectIntMap<K> {
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public ObjectIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 1)) << 1;
+        keys = new Object[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public ObjectIntMap() {
+        this(8);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(K key, int defaultValue) {
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null)
+                return defaultValue;
+            if (k.equals(key))
+                return values[i];
+        }
+    }
+
+    public boolean containsKey(K key) {
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null)
+                return false;
+            if (k.equals(key))
+                return true;
+        }
+    }
+
+    public void put(K key, int value) {
+        putIfAbsent(key, value, true);
+    }
+
+    // Returns the value the key is already mapped to, or adds the mapping and returns the given value
+    public int putIfAbsent(K key, int value) {
+        return putIfAbsent(key, value, false);
+    }
+
+    private int putIfAbsent(K key, int value, boolean replace) {
+        int i = hash(key) & mask;
+        for (Object k; (k = keys[i]) != null; i = (i + 1) & mask) {
+            if (k.equals(key)) {
+                if (replace)
+                    values[i] = value;
+                return values[i];
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    // The keys and values can be iterated over by going through the slots up to getCapacity(); empty slots have
+    // a null key.
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public K getKeyAt(int slot) {
+        return (K) keys[slot];
+    }
+
+    public int getValueAt(int slot) {
+        return values[slot];
+    }
+
+    private void rehash(int capacity) {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null)
+                continue;
+            int j = hash(oldKeys[i]) & mask;
+            while (keys[j] != null)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+}
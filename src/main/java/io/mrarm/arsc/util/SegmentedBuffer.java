@@ -0,0 +1,152 @@
+package io.mrarm.arsc.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.mrarm.arsc.DataWriter;
+
+// A growable byte buffer made of fixed size blocks, so that growing it never copies the data and it never needs
+// a single large allocation. Once more than the memory limit is held in memory, full blocks are moved out to a
+// temporary file in the spill directory, which is deleted on close.
+public class SegmentedBuffer implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    // the block being filled starts out this small and doubles up to the block size, so that small buffers
+    // stay small
+    private static final int MIN_BLOCK_SIZE = 256;
+
+    private final int blockSize;
+    // spilled blocks are null
+    private final List<byte[]> blocks = new ArrayList<>();
+    private int size;
+    private final long memoryLimit;
+    private final Path spillDirectory;
+    private FileChannel spillFile;
+    private int spilledBlockCount;
+    private byte[] readBlock;
+
+    // A memory limit of 0 keeps all the data in memory
+    public SegmentedBuffer(int blockSize, long memoryLimit, Path spillDirectory) {
+        if (memoryLimit > 0 && spillDirectory == null)
+            throw new IllegalArgumentException("a memory limit needs a spill directory");
+        this.blockSize = blockSize;
+        this.memoryLimit = memoryLimit;
+        this.spillDirectory = spillDirectory;
+    }
+
+    public SegmentedBuffer() {
+        this(DEFAULT_BLOCK_SIZE, 0, null);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isSpilled() {
+        return spilledBlockCount > 0;
+    }
+
+    public void write(byte[] data, int off, int len) throws IOException {
+        while (len > 0) {
+            int blockOffset = size % blockSize;
+            if (blockOffset == 0) {
+                spillIfNeeded();
+                blocks.add(new byte[Math.min(Math.max(len, MIN_BLOCK_SIZE), blockSize)]);
+            }
+            int n = Math.min(len, blockSize - blockOffset);
+            byte[] block = blocks.get(blocks.size() - 1);
+            if (blockOffset + n > block.length) {
+                block = Arrays.copyOf(block, Math.min(Math.max(blockOffset + n, block.length * 2), blockSize));
+                blocks.set(blocks.size() - 1, block);
+            }
+            System.arraycopy(data, off, block, blockOffset, n);
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Appends len bytes of the other buffer, starting at the given position
+    public void write(SegmentedBuffer src, int position, int len) throws IOException {
+        while (len > 0) {
+            int blockOffset = position % src.blockSize;
+            int n = Math.min(len, src.blockSize - blockOffset);
+            write(src.getBlock(position / src.blockSize), blockOffset, n);
+            position += n;
+            len -= n;
+        }
+    }
+
+    // Called before a block is added, moves all the full blocks to the file once the new one would be over the
+    // limit
+    private void spillIfNeeded() throws IOException {
+        if (memoryLimit <= 0 || (long) (blocks.size() - spilledBlockCount + 1) * blockSize <= memoryLimit)
+            return;
+        if (spillFile == null) {
+            Path path = Files.createTempFile(spillDirectory, "strings", ".tmp");
+            spillFile = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        for (int i = spilledBlockCount; i < blocks.size(); i++) {
+            ByteBuffer block = ByteBuffer.wrap(blocks.get(i));
+            long position = (long) i * blockSize;
+            while (block.hasRemaining())
+                position += spillFile.write(block, position);
+            blocks.set(i, null);
+        }
+        spilledBlockCount = blocks.size();
+    }
+
+    // Returns the block with the given index, reading it back from the file if it was spilled. The array of a
+    // spilled block is reused for the next one.
+    private byte[] getBlock(int index) throws IOException {
+        byte[] block = blocks.get(index);
+        if (block != null)
+            return block;
+        if (spillFile == null)
+            throw new IOException("the buffer is closed");
+        if (readBlock == null)
+            readBlock = new byte[blockSize];
+        ByteBuffer dst = ByteBuffer.wrap(readBlock);
+        long position = (long) index * blockSize;
+        while (dst.hasRemaining()) {
+            int n = spillFile.read(dst, position + dst.position());
+            if (n < 0)
+                throw new IOException("the spill file was truncated");
+        }
+        return readBlock;
+    }
+
+    public void writeTo(DataWriter writer) throws IOException {
+        for (int i = 0; i < blocks.size(); i++) {
+            int length = i == blocks.size() - 1 ? size - i * blockSize : blockSize;
+            writer.write(getBlock(i), 0, length);
+        }
+    }
+
+    public byte[] toByteArray() throws IOException {
+        byte[] ret = new byte[size];
+        for (int i = 0; i < blocks.size(); i++) {
+            int length = i == blocks.size() - 1 ? size - i * blockSize : blockSize;
+            System.arraycopy(getBlock(i), 0, ret, i * blockSize, length);
+        }
+        return ret;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spillFile != null) {
+            spillFile.close();
+            spillFile = null;
+        }
+    }
+
+}
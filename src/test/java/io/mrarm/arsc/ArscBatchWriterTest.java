@@ -0,0 +1,120 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+
+public class ArscBatchWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, InterruptedException {
+        ArscBatchWriter writer = new ArscBatchWriter(new ArscWriter(null), executor);
+        ResTable[] tables = new ResTable[4];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = TestTables.createTable(100 + i * 50, "de");
+            writer.add(tables[i], folder.newFile().toPath());
+        }
+        List<ArscBatchWriter.Result> results = writer.writeAll();
+        assertEquals(tables.length, results.size());
+        for (int i = 0; i < tables.length; i++) {
+            ArscBatchWriter.Result result = results.get(i);
+            assertTrue(result.isSuccessful());
+            byte[] data = Files.readAllBytes(result.getOutput());
+            assertEquals(data.length, result.getSize());
+            TestTables.assertTablesEqual(tables[i], TestTables.read(data));
+        }
+    }
+
+    @Test
+    public void testFailureIsReported() throws IOException, InterruptedException {
+        ResTable failing = TestTables.createTable(10);
+        failing.getPackages().get(0).addType(new FailingType(new IOException("prepare failed")));
+        ResTable failingUnchecked = TestTables.createTable(10);
+        failingUnchecked.getPackages().get(0).addType(new FailingType(new IllegalStateException("bad state")));
+        ResTable table = TestTables.createTable(10);
+        ArscBatchWriter writer = new ArscBatchWriter(new ArscWriter(null), executor);
+        writer.add(failing, folder.newFile().toPath());
+        writer.add(failingUnchecked, folder.newFile().toPath());
+        Path output = folder.newFile().toPath();
+        writer.add(table, output);
+        List<ArscBatchWriter.Result> results = writer.writeAll();
+        assertFalse(results.get(0).isSuccessful());
+        assertTrue(results.get(0).getFailure() instanceof IOException);
+        assertFalse(results.get(1).isSuccessful());
+        assertTrue(results.get(1).getFailure() instanceof IllegalStateException);
+        assertTrue(results.get(2).isSuccessful());
+        TestTables.assertTablesEqual(table, TestTables.read(Files.readAllBytes(output)));
+    }
+
+    @Test(expected = TestError.class)
+    public void testErrorIsRethrown() throws IOException, InterruptedException {
+        ResTable table = TestTables.createTable(10);
+        table.getPackages().get(0).addType(new FailingType(new TestError()));
+        ArscBatchWriter writer = new ArscBatchWriter(new ArscWriter(null), executor);
+        writer.add(table, folder.newFile().toPath());
+        writer.writeAll();
+    }
+
+    private static class TestError extends Error {
+    }
+
+    private static class FailingType extends ResTable.TypeBase {
+
+        private final Throwable failure;
+
+        FailingType(Throwable failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public Writer createWriter(ResTable.Package.Writer packageWriter) {
+            return new Writer<FailingType>(this) {
+                @Override
+                public void prepare(DataWritePreparer preparer) throws IOException {
+                    if (failure instanceof IOException)
+                        throw (IOException) failure;
+                    if (failure instanceof RuntimeException)
+                        throw (RuntimeException) failure;
+                    throw (Error) failure;
+                }
+            };
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_TABLE_TYPE;
+        }
+
+    }
+
+}
@@ -0,0 +1,200 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class ArscPatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path writeTable(ResTable table) throws IOException {
+        Path path = folder.newFile().toPath();
+        new ArscWriter(table).write(path);
+        return path;
+    }
+
+    private static ArscReader.TypeReader findType(ArscReader reader, int typeId, String language) {
+        ResTable.Config config = TestTables.config(language);
+        for (ArscReader.TypeReader type : reader.getPackage(TestTables.PACKAGE_ID).getTypes()) {
+            if (type.getId() == typeId && type.getConfig().equals(config))
+                return type;
+        }
+        throw new AssertionError("no type " + typeId + " for " + language);
+    }
+
+    private static ResTable.Type findType(ResTable table, int typeId, String language) {
+        ResTable.Config config = TestTables.config(language);
+        for (ResTable.TypeBase type : table.getPackages().get(0).getTypes()) {
+            if (type instanceof ResTable.Type && ((ResTable.Type) type).id == typeId &&
+                    ((ResTable.Type) type).config.equals(config))
+                return (ResTable.Type) type;
+        }
+        throw new AssertionError("no type " + typeId + " for " + language);
+    }
+
+    private static void putEntry(ResTable.Type type, ResTable.EntryBase entry) {
+        removeEntry(type, entry.id);
+        type.entries.add(entry);
+    }
+
+    private static void removeEntry(ResTable.Type type, int id) {
+        for (int i = 0; i < type.entries.size(); i++) {
+            if (type.entries.get(i).id == id)
+                type.entries.remove(i--);
+        }
+    }
+
+    private static int getGlobalStringCount(Path path) throws IOException {
+        return ArscReader.open(path).getGlobalStringPool().getStringCount();
+    }
+
+    @Test
+    public void testEditsRoundTrip() throws IOException {
+        ResTable expected = TestTables.createTable(100, "de");
+        Path input = writeTable(expected);
+        Path output = folder.newFile().toPath();
+        try (ArscPatcher patcher = new ArscPatcher(input)) {
+            ArscReader reader = patcher.getReader();
+            patcher.putEntry(findType(reader, TestTables.STRING_TYPE, null),
+                    new ResTable.Entry(5, "string_5", new ResValue.Text("patched")));
+            patcher.putEntry(findType(reader, TestTables.STRING_TYPE, "de"),
+                    new ResTable.Entry(100, "string_100", new ResValue.Text("neu")));
+            patcher.removeEntry(findType(reader, TestTables.INTEGER_TYPE, null), 7);
+            patcher.write(output);
+        }
+
+        putEntry(findType(expected, TestTables.STRING_TYPE, null),
+                new ResTable.Entry(5, "string_5", new ResValue.Text("patched")));
+        putEntry(findType(expected, TestTables.STRING_TYPE, "de"),
+                new ResTable.Entry(100, "string_100", new ResValue.Text("neu")));
+        removeEntry(findType(expected, TestTables.INTEGER_TYPE, null), 7);
+        ResTable.TypeSpec strings = (ResTable.TypeSpec) expected.getPackages().get(0).getTypes().get(0);
+        strings.flags = Arrays.copyOf(strings.flags, 101);
+        TestTables.assertTablesEqual(expected, ArscReader.open(output).toResTable());
+    }
+
+    private static int getKeyStringCount(Path path) throws IOException {
+        return ArscReader.open(path).getPackage(TestTables.PACKAGE_ID).getKeyStrings().getStringCount();
+    }
+
+    @Test
+    public void testExistingKeysAreReused() throws IOException {
+        Path input = writeTable(TestTables.createTable(100, "de"));
+        int globalStringCount = getGlobalStringCount(input);
+        int keyStringCount = getKeyStringCount(input);
+        for (int run = 0; run < 3; run++) {
+            Path output = folder.newFile().toPath();
+            try (ArscPatcher patcher = new ArscPatcher(input)) {
+                ArscReader.TypeReader type = findType(patcher.getReader(), TestTables.STRING_TYPE, null);
+                patcher.putEntry(type, new ResTable.Entry(1, "string_1", new ResValue.Text("value 7")));
+                patcher.putEntry(type, new ResTable.Entry(2, "string_2", new ResValue.Text("added")));
+                // a resource that the type doesn't have a value of yet, but another configuration does
+                patcher.putEntry(findType(patcher.getReader(), TestTables.STRING_TYPE, "de"),
+                        new ResTable.Entry(1, "string_1", new ResValue.Text("added")));
+                patcher.write(output);
+            }
+            // the keys are found in the other configurations of the resources; the global pool isn't searched,
+            // but the strings added to it are only added once
+            assertEquals(keyStringCount, getKeyStringCount(output));
+            globalStringCount += 2;
+            assertEquals(globalStringCount, getGlobalStringCount(output));
+            ArscReader.TypeReader type = findType(ArscReader.open(output), TestTables.STRING_TYPE, "de");
+            assertEquals("string_1", type.getEntry(1).key);
+            assertEquals("added", ((ResValue.Text) ((ResTable.Entry) type.getEntry(1)).getValue()).data);
+            input = output;
+        }
+    }
+
+    @Test
+    public void testNewKeysAreAppended() throws IOException {
+        Path input = writeTable(TestTables.createTable(100));
+        int keyStringCount = getKeyStringCount(input);
+        Path output = folder.newFile().toPath();
+        try (ArscPatcher patcher = new ArscPatcher(input)) {
+            ArscReader.TypeReader type = findType(patcher.getReader(), TestTables.STRING_TYPE, null);
+            // a different key for an existing resource, and a new resource
+            patcher.putEntry(type, new ResTable.Entry(1, "renamed", new ResValue.Text("value 1")));
+            patcher.putEntry(type, new ResTable.Entry(100, "string_100", new ResValue.Text("value 100")));
+            patcher.putEntry(type, new ResTable.Entry(101, "string_100", new ResValue.Text("value 101")));
+            patcher.write(output);
+        }
+        assertEquals(keyStringCount + 2, getKeyStringCount(output));
+        ArscReader.TypeReader type = findType(ArscReader.open(output), TestTables.STRING_TYPE, null);
+        assertEquals("renamed", type.getEntry(1).key);
+        assertEquals("string_100", type.getEntry(100).key);
+        assertEquals(type.getEntryKeyIndex(100), type.getEntryKeyIndex(101));
+    }
+
+    private byte[] patchIntegers(ResTable table, ArscWriter settings) throws IOException {
+        Path input = writeTable(table);
+        Path output = folder.newFile().toPath();
+        try (ArscPatcher patcher = new ArscPatcher(input, settings)) {
+            patcher.putEntry(findType(patcher.getReader(), TestTables.INTEGER_TYPE, null),
+                    new ResTable.Entry(1, "integer_1", new ResValue.Integer(ResValue.TYPE_INT_DEC, 1234)));
+            patcher.write(output);
+        }
+        byte[] data = Files.readAllBytes(output);
+        putEntry(findType(table, TestTables.INTEGER_TYPE, null),
+                new ResTable.Entry(1, "integer_1", new ResValue.Integer(ResValue.TYPE_INT_DEC, 1234)));
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+        return data;
+    }
+
+    @Test
+    public void testWriterSettings() throws IOException {
+        ResTable table = TestTables.createTable(100);
+        byte[] data = patchIntegers(table, new ArscWriter(null));
+        assertEquals(0, TestTables.getTypeFlags(data, TestTables.INTEGER_TYPE, null));
+
+        ArscWriter settings = new ArscWriter(null);
+        settings.setOffset16Enabled(true);
+        data = patchIntegers(TestTables.createTable(100), settings);
+        assertEquals(ResTable.Type.FLAG_OFFSET16, TestTables.getTypeFlags(data, TestTables.INTEGER_TYPE, null));
+
+        settings = new ArscWriter(null);
+        settings.setSparseTypeThreshold(0.9f);
+        data = patchIntegers(TestTables.createTable(100), settings);
+        assertEquals(ResTable.Type.FLAG_SPARSE, TestTables.getTypeFlags(data, TestTables.INTEGER_TYPE, null));
+
+        settings = new ArscWriter(null);
+        settings.setCompactEntriesEnabled(true);
+        data = patchIntegers(TestTables.createTable(100), settings);
+        // the edited entry is written in the compact form, the others are copied as they were
+        ArscReader.TypeReader type = findType(new ArscReader(ByteBuffer.wrap(data)), TestTables.INTEGER_TYPE, null);
+        assertEquals(8, type.getEntrySize(type.getEntryOffset(1)));
+        assertEquals(16, type.getEntrySize(type.getEntryOffset(2)));
+    }
+
+    @Test
+    public void testEncodingIsKeptWithoutSettings() throws IOException {
+        ResTable table = TestTables.createTable(100);
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold(0.9f);
+        Path input = folder.newFile().toPath();
+        writer.write(input);
+        Path output = folder.newFile().toPath();
+        try (ArscPatcher patcher = new ArscPatcher(input)) {
+            patcher.removeEntry(findType(patcher.getReader(), TestTables.INTEGER_TYPE, null), 1);
+            patcher.write(output);
+        }
+        byte[] data = Files.readAllBytes(output);
+        assertTrue((TestTables.getTypeFlags(data, TestTables.INTEGER_TYPE, null) & ResTable.Type.FLAG_SPARSE) != 0);
+        removeEntry(findType(table, TestTables.INTEGER_TYPE, null), 1);
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+}
@@ -0,0 +1,112 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class ArscReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ResTable table = TestTables.createTable(300, "de", "fr");
+        Path path = folder.newFile("resources.arsc").toPath();
+        new ArscWriter(table).write(path);
+        TestTables.assertTablesEqual(table, ArscReader.open(path).toResTable());
+    }
+
+    @Test
+    public void testLookups() throws IOException {
+        ResTable table = TestTables.createTable(30, "de");
+        ArscReader reader = new ArscReader(ByteBuffer.wrap(TestTables.write(table)));
+        ArscReader.PackageReader pkg = reader.getPackage(TestTables.PACKAGE_ID);
+        assertEquals(TestTables.PACKAGE_NAME, pkg.getName());
+        assertNull(reader.getPackage(0x01));
+        assertEquals("integer", pkg.getTypeSpecs().get(TestTables.INTEGER_TYPE - 1).getName());
+        assertEquals(30, pkg.getTypeSpecs().get(0).getEntryCount());
+        ArscReader.TypeReader integers = null;
+        for (ArscReader.TypeReader type : pkg.getTypes()) {
+            if (type.getId() == TestTables.INTEGER_TYPE)
+                integers = type;
+        }
+        ResTable.Entry entry = (ResTable.Entry) integers.getEntry(7);
+        assertEquals("integer_7", entry.key);
+        assertEquals(7 * 7, ((ResValue.Integer) entry.getValue()).data);
+        // every fifth integer is missing
+        assertNull(integers.getEntry(9));
+    }
+
+    // The lookups give the same entries for each of the offset and entry encodings, including at the edges of the
+    // id range
+    @Test
+    public void testLookupsWithSettings() throws IOException {
+        ResTable table = TestTables.createTable(100, "de");
+        for (int settings = 0; settings < 8; settings++) {
+            ArscWriter writer = new ArscWriter(table);
+            writer.setSparseTypeThreshold((settings & 1) != 0 ? 0.5f : 0);
+            writer.setOffset16Enabled((settings & 2) != 0);
+            writer.setCompactEntriesEnabled((settings & 4) != 0);
+            ArscReader reader = new ArscReader(ByteBuffer.wrap(TestTables.write(writer)));
+            for (ArscReader.TypeReader type : reader.getPackage(TestTables.PACKAGE_ID).getTypes()) {
+                ResTable.Type expected = null;
+                for (ResTable.TypeBase typeBase : table.getPackages().get(0).getTypes()) {
+                    if (!(typeBase instanceof ResTable.Type))
+                        continue;
+                    ResTable.Type candidate = (ResTable.Type) typeBase;
+                    if (candidate.id == type.getId() && candidate.config.equals(type.getConfig()))
+                        expected = candidate;
+                }
+                String message = "settings " + settings + " type " + type.getId();
+                int[] ids = new int[expected.entries.size()];
+                for (int i = 0; i < ids.length; i++)
+                    ids[i] = expected.entries.get(i).id;
+                assertArrayEquals(message, ids, type.getEntryIds());
+                for (int id = 0; id < 100; id++) {
+                    ResTable.EntryBase entry = type.getEntry(id);
+                    if (Arrays.binarySearch(ids, id) < 0) {
+                        assertNull(message + " entry " + id, entry);
+                        assertEquals(-1, type.getEntryKeyIndex(id));
+                    } else {
+                        assertEquals(message + " entry " + id, id, entry.id);
+                        assertEquals(entry.key, reader.getPackage(TestTables.PACKAGE_ID).getKeyStrings()
+                                .getString(type.getEntryKeyIndex(id)));
+                    }
+                }
+                for (int id : new int[] { -1, 100, 0xFFFF, 0x10000 })
+                    assertNull(message + " entry " + id, type.getEntry(id));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyTable() throws IOException {
+        ResTable table = new ResTable();
+        assertEquals(Arrays.asList(), TestTables.describe(TestTables.read(TestTables.write(table))));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotATable() throws IOException {
+        new ArscReader(ByteBuffer.wrap(new byte[] { 3, 0, 8, 0, 8, 0, 0, 0 }));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] data = TestTables.write(TestTables.createTable(30));
+        new ArscReader(ByteBuffer.wrap(Arrays.copyOf(data, data.length / 2)));
+    }
+
+}
@@ -0,0 +1,68 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+
+public class ArscWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void assertPathSameAsStream(ArscWriter writer) throws IOException {
+        byte[] expected = TestTables.write(writer);
+        // a longer file that the table has to replace entirely
+        Path path = folder.newFile().toPath();
+        Files.write(path, new byte[expected.length + 100]);
+        writer.write(path);
+        assertArrayEquals(expected, Files.readAllBytes(path));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(Channels.newChannel(out));
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testWritePath() throws IOException {
+        ResTable table = TestTables.createTable(500, "de", "fr");
+        assertPathSameAsStream(new ArscWriter(table));
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold(0.5f);
+        writer.setOffset16Enabled(true);
+        writer.setCompactEntriesEnabled(true);
+        writer.setEntryDeduplicationEnabled(true);
+        assertPathSameAsStream(writer);
+    }
+
+    // The mapped file is sliced and the packages and types are written into it concurrently
+    @Test
+    public void testWritePathParallel() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ArscWriter writer = new ArscWriter(TestTables.createTable(500, "de", "fr"));
+            writer.setExecutor(executor);
+            assertPathSameAsStream(writer);
+            assertArrayEquals(TestTables.write(TestTables.createTable(500, "de", "fr")), TestTables.write(writer));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWritePathEmptyTable() throws IOException {
+        assertPathSameAsStream(new ArscWriter(new ResTable()));
+    }
+
+}
@@ -0,0 +1,115 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class CompactEntryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ResTable table = TestTables.createTable(300, "de");
+        ArscWriter writer = new ArscWriter(table);
+        writer.setCompactEntriesEnabled(true);
+        byte[] data = TestTables.write(writer);
+        assertTrue(data.length < TestTables.write(table).length);
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    @Test
+    public void testAllEncodingCombinations() throws IOException {
+        ResTable table = TestTables.createTable(300, "de", "fr");
+        for (int i = 0; i < 16; i++) {
+            ArscWriter writer = new ArscWriter(table);
+            writer.setSparseTypeThreshold((i & 1) != 0 ? 0.5f : 0);
+            writer.setOffset16Enabled((i & 2) != 0);
+            writer.setCompactEntriesEnabled((i & 4) != 0);
+            writer.setEntryDeduplicationEnabled((i & 8) != 0);
+            TestTables.assertTablesEqual(table, TestTables.read(TestTables.write(writer)));
+        }
+    }
+
+    // A value type of a library user, which doesn't report its type and data
+    private static class HexValue extends ResValue {
+
+        private final int data;
+
+        HexValue(int data) {
+            this.data = data;
+        }
+
+        @Override
+        public ResValue.Writer createWriter() {
+            return new ResValue.Writer<HexValue>(this) {
+                @Override
+                public void write(DataWriter writer) throws IOException {
+                    writer.writeShort(8);
+                    writer.writeByte(0);
+                    writer.writeByte(TYPE_INT_HEX);
+                    writer.writeInt(value.data);
+                }
+
+                @Override
+                public int getTotalSize() {
+                    return 8;
+                }
+            };
+        }
+
+    }
+
+    private static ResTable createHexTable(int data) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "integer", new int[1]));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        type.addEntry(new ResTable.Entry(0, "a", new HexValue(data)));
+        pkg.addType(type);
+        return table;
+    }
+
+    private static int readValue(byte[] data, int id) throws IOException {
+        ResTable.Type type = (ResTable.Type) TestTables.read(data).getPackages().get(0).getTypes().get(1);
+        for (ResTable.EntryBase entry : type.entries) {
+            if (entry.id == id)
+                return ((ResValue.Integer) ((ResTable.Entry) entry).getValue()).data;
+        }
+        throw new AssertionError("no entry " + id);
+    }
+
+    @Test
+    public void testUnknownValuesAreWrittenInFull() throws IOException {
+        ResTable table = createHexTable(0x1234);
+        ArscWriter writer = new ArscWriter(table);
+        writer.setCompactEntriesEnabled(true);
+        byte[] data = TestTables.write(writer);
+        assertArrayEquals(TestTables.write(table), data);
+        assertEquals(0x1234, readValue(data, 0));
+    }
+
+    @Test
+    public void testUnknownValuesInTypeChunkCache() throws IOException {
+        TypeChunkCache cache = new TypeChunkCache(folder.newFolder().toPath(), Long.MAX_VALUE, Long.MAX_VALUE);
+        for (int data : new int[] { 1, 2, 1 }) {
+            ArscWriter writer = new ArscWriter(createHexTable(data));
+            writer.setCompactEntriesEnabled(true);
+            writer.setTypeChunkCache(cache);
+            byte[] written = TestTables.write(writer);
+            assertEquals(data, readValue(written, 0));
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class DataWriterTest {
+
+    // Writes the same data through the writer, with ints that cross the 64 KiB buffer of a channel backed writer
+    private static void writeSample(DataWriter writer, int[] ints, byte[] bytes) throws IOException {
+        writer.writeByte(0x12);
+        writer.writeShort(0x3456);
+        writer.writeInt(0x789abcde);
+        // unaligned, and more than fits in the buffer
+        writer.writeInts(ints);
+        writer.write(bytes);
+        writer.writeInts(ints, 1, 3);
+    }
+
+    private static byte[] expectSample(int[] ints, byte[] bytes) {
+        ByteBuffer ret = ByteBuffer.allocate(7 + ints.length * 4 + bytes.length + 12).order(ByteOrder.LITTLE_ENDIAN);
+        ret.put((byte) 0x12);
+        ret.putShort((short) 0x3456);
+        ret.putInt(0x789abcde);
+        for (int v : ints)
+            ret.putInt(v);
+        ret.put(bytes);
+        for (int i = 1; i < 4; i++)
+            ret.putInt(ints[i]);
+        return ret.array();
+    }
+
+    private static int[] createInts(int count) {
+        int[] ret = new int[count];
+        for (int i = 0; i < count; i++)
+            ret[i] = i * 0x01020304;
+        return ret;
+    }
+
+    private static byte[] createBytes(int count) {
+        byte[] ret = new byte[count];
+        for (int i = 0; i < count; i++)
+            ret[i] = (byte) (i * 31);
+        return ret;
+    }
+
+    @Test
+    public void testLittleEndian() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataWriter writer = new DataWriter(out);
+        writer.writeShort(0x0102);
+        writer.writeInt(0x03040506);
+        writer.writeInts(new int[] { 0x0708090a });
+        writer.flush();
+        assertArrayEquals(new byte[] { 2, 1, 6, 5, 4, 3, 0xa, 9, 8, 7 }, out.toByteArray());
+
+        // a big endian buffer is switched to little endian
+        ByteBuffer buffer = ByteBuffer.allocate(6).order(ByteOrder.BIG_ENDIAN);
+        writer = new DataWriter(buffer);
+        writer.writeShort(0x0102);
+        writer.writeInt(0x03040506);
+        assertArrayEquals(new byte[] { 2, 1, 6, 5, 4, 3 }, buffer.array());
+    }
+
+    @Test
+    public void testChannel() throws IOException {
+        // small writes, and a write bigger than the buffer which bypasses it
+        for (int byteCount : new int[] { 10, 200 * 1024 }) {
+            int[] ints = createInts(40000);
+            byte[] bytes = createBytes(byteCount);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataWriter writer = new DataWriter(out);
+            assertFalse(writer.canSlice());
+            writeSample(writer, ints, bytes);
+            writer.flush();
+            assertArrayEquals(expectSample(ints, bytes), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testBuffer() throws IOException {
+        int[] ints = createInts(40000);
+        byte[] bytes = createBytes(100);
+        byte[] expected = expectSample(ints, bytes);
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        writeSample(new DataWriter(buffer), ints, bytes);
+        assertArrayEquals(expected, buffer.array());
+    }
+
+    @Test
+    public void testSlice() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        DataWriter writer = new DataWriter(buffer);
+        assertTrue(writer.canSlice());
+        writer.writeInt(1);
+        DataWriter first = writer.slice(4);
+        DataWriter second = writer.slice(4);
+        writer.writeInt(4);
+        // the slices are filled after the data that follows them, and out of order
+        second.writeInt(3);
+        first.writeShort(2);
+        first.writeShort(0);
+        ByteBuffer expected = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 1; i <= 4; i++)
+            expected.putInt(i);
+        assertArrayEquals(expected.array(), buffer.array());
+        try {
+            second.writeInt(5);
+            fail();
+        } catch (BufferOverflowException e) {
+            // the slice only covers its own range
+        }
+        assertArrayEquals(expected.array(), buffer.array());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testChannelCantSlice() {
+        new DataWriter(new ByteArrayOutputStream()).slice(4);
+    }
+
+    @Test
+    public void testSliceOfSlice() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        DataWriter writer = new DataWriter(buffer);
+        DataWriter outer = writer.slice(12);
+        outer.writeInt(1);
+        DataWriter inner = outer.slice(4);
+        outer.writeInt(3);
+        inner.writeInt(2);
+        byte[] expected = new byte[12];
+        expected[0] = 1;
+        expected[4] = 2;
+        expected[8] = 3;
+        assertArrayEquals(expected, buffer.array());
+    }
+
+}
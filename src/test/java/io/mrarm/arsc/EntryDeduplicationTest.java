@@ -0,0 +1,108 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class EntryDeduplicationTest {
+
+    // Entries 0-3 and 6-7 are identical pairs, the others differ from them in one field each
+    private static ResTable createTable() {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "string", new int[10]));
+        pkg.addType(new ResTable.TypeSpec(2, "style", new int[10]));
+        ResTable.Type strings = new ResTable.Type(1, TestTables.config(null));
+        strings.addEntry(new ResTable.Entry(0, "same", new ResValue.Text("text")));
+        strings.addEntry(new ResTable.Entry(3, "same", new ResValue.Text("text")));
+        // another value, key or visibility
+        strings.addEntry(new ResTable.Entry(1, "same", new ResValue.Text("other")));
+        strings.addEntry(new ResTable.Entry(2, "other", new ResValue.Text("text")));
+        strings.addEntry(new ResTable.Entry(4, "same", new ResValue.Text("text"), true));
+        strings.addEntry(new ResTable.Entry(5, "same", new ResValue.Integer(ResValue.TYPE_INT_DEC, 1)));
+        strings.addEntry(new ResTable.Entry(6, "number", new ResValue.Integer(ResValue.TYPE_INT_DEC, 1)));
+        strings.addEntry(new ResTable.Entry(7, "number", new ResValue.Integer(ResValue.TYPE_INT_DEC, 1)));
+        pkg.addType(strings);
+        ResTable.Type styles = new ResTable.Type(2, TestTables.config(null));
+        for (int i = 0; i < 3; i++) {
+            ResTable.MapEntry style = new ResTable.MapEntry(i, "style");
+            style.addValue(0x01010000, new ResValue.Text(i < 2 ? "same" : "other"));
+            styles.addEntry(style);
+        }
+        pkg.addType(styles);
+        return table;
+    }
+
+    private static ArscReader.TypeReader getType(byte[] data, int typeId) throws IOException {
+        for (ArscReader.TypeReader type : new ArscReader(ByteBuffer.wrap(data)).getPackage(TestTables.PACKAGE_ID)
+                .getTypes()) {
+            if (type.getId() == typeId)
+                return type;
+        }
+        throw new AssertionError("no type " + typeId);
+    }
+
+    private static void assertShared(byte[] data) throws IOException {
+        ArscReader.TypeReader strings = getType(data, 1);
+        assertEquals(strings.getEntryOffset(0), strings.getEntryOffset(3));
+        assertEquals(strings.getEntryOffset(6), strings.getEntryOffset(7));
+        for (int id : new int[] { 1, 2, 4, 5, 6 })
+            assertNotEquals("entry " + id, strings.getEntryOffset(0), strings.getEntryOffset(id));
+        assertNotEquals(strings.getEntryOffset(5), strings.getEntryOffset(6));
+        ArscReader.TypeReader styles = getType(data, 2);
+        assertEquals(styles.getEntryOffset(0), styles.getEntryOffset(1));
+        assertNotEquals(styles.getEntryOffset(0), styles.getEntryOffset(2));
+    }
+
+    private static ArscWriter createWriter(ResTable table, int settings) {
+        ArscWriter writer = new ArscWriter(table);
+        writer.setEntryDeduplicationEnabled(true);
+        writer.setSparseTypeThreshold((settings & 1) != 0 ? 0.9f : 0);
+        writer.setOffset16Enabled((settings & 2) != 0);
+        writer.setCompactEntriesEnabled((settings & 4) != 0);
+        return writer;
+    }
+
+    @Test
+    public void testIdenticalEntriesShareOffset() throws IOException {
+        ResTable table = createTable();
+        int plainSize = TestTables.write(table).length;
+        for (int settings = 0; settings < 8; settings++) {
+            byte[] data = TestTables.write(createWriter(table, settings));
+            assertShared(data);
+            TestTables.assertTablesEqual(table, TestTables.read(data));
+            if (settings == 0)
+                assertTrue(data.length < plainSize);
+        }
+    }
+
+    // The entries are compared while their string indices are still local to the shard of the type
+    @Test
+    public void testParallel() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ResTable table = createTable();
+            for (int settings = 0; settings < 8; settings++) {
+                ArscWriter writer = createWriter(table, settings);
+                writer.setExecutor(executor);
+                byte[] data = TestTables.write(writer);
+                assertShared(data);
+                TestTables.assertTablesEqual(table, TestTables.read(data));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResStringPool;
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class KeyPoolTest {
+
+    private static ResTable createTable(List<String> keys) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "string", new int[keys.size()]));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        for (int i = 0; i < keys.size(); i++)
+            type.addEntry(new ResTable.Entry(i, keys.get(i), new ResValue.Text("value")));
+        pkg.addType(type);
+        return table;
+    }
+
+    private static int compareUtf8(String a, String b) {
+        byte[] ea = a.getBytes(StandardCharsets.UTF_8);
+        byte[] eb = b.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < Math.min(ea.length, eb.length); i++) {
+            if (ea[i] != eb[i])
+                return (ea[i] & 0xff) - (eb[i] & 0xff);
+        }
+        return ea.length - eb.length;
+    }
+
+    @Test
+    public void testSortedByUtf8() throws IOException {
+        // U+1F600 is a surrogate pair in UTF-16, which String.compareTo puts before U+E000
+        List<String> keys = Arrays.asList("b", "a\uD83D\uDE00", "a\uE000", "a", "A", "\u00E9");
+        ResTable table = createTable(keys);
+        byte[] data = TestTables.write(table);
+        ArscReader.StringPoolReader pool = new ArscReader(ByteBuffer.wrap(data))
+                .getPackage(TestTables.PACKAGE_ID).getKeyStrings();
+        assertEquals(keys.size(), pool.getStringCount());
+        assertTrue((pool.getFlags() & ResStringPool.FLAG_SORTED) != 0);
+        for (int i = 1; i < pool.getStringCount(); i++)
+            assertTrue(compareUtf8(pool.getString(i - 1), pool.getString(i)) < 0);
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    @Test
+    public void testIndependentOfEntryOrder() throws IOException {
+        List<String> keys = Arrays.asList("delta", "alpha", "charlie", "bravo");
+        ResTable table = createTable(keys);
+        ResTable reordered = createTable(keys);
+        ResTable.Type type = (ResTable.Type) reordered.getPackages().get(0).getTypes().get(1);
+        Collections.reverse(type.entries);
+        assertArrayEquals(TestTables.write(table), TestTables.write(reordered));
+    }
+
+}
@@ -0,0 +1,110 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class MergeTypesTest {
+
+    // Moves the entries from the given id on of the type with the id and language into a new Type with an equal
+    // (but not the same) config, added at the end of the package
+    private static ResTable.Type splitType(ResTable table, int typeId, String language, int fromId) {
+        ResTable.Package pkg = table.getPackages().get(0);
+        ResTable.Config config = TestTables.config(language);
+        for (ResTable.TypeBase typeBase : new ArrayList<>(pkg.getTypes())) {
+            if (!(typeBase instanceof ResTable.Type))
+                continue;
+            ResTable.Type type = (ResTable.Type) typeBase;
+            if (type.id != typeId || !type.config.equals(config))
+                continue;
+            ResTable.Type ret = new ResTable.Type(typeId, TestTables.config(language));
+            for (ResTable.EntryBase entry : new ArrayList<>(type.entries)) {
+                if (entry.id >= fromId) {
+                    type.entries.remove(entry);
+                    ret.addEntry(entry);
+                }
+            }
+            pkg.addType(ret);
+            return ret;
+        }
+        throw new AssertionError("no type " + typeId + " for " + language);
+    }
+
+    private static ArscWriter createWriter(ResTable table, int settings) {
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold((settings & 1) != 0 ? 0.5f : 0);
+        writer.setOffset16Enabled((settings & 2) != 0);
+        writer.setCompactEntriesEnabled((settings & 4) != 0);
+        return writer;
+    }
+
+    private static int countTypeChunks(byte[] data) throws IOException {
+        return new ArscReader(ByteBuffer.wrap(data)).getPackage(TestTables.PACKAGE_ID).getTypes().size();
+    }
+
+    @Test
+    public void testSameOutputAsMerged() throws IOException {
+        ResTable merged = TestTables.createTable(100, "de", "fr");
+        ResTable split = TestTables.createTable(100, "de", "fr");
+        splitType(split, TestTables.STRING_TYPE, null, 50);
+        splitType(split, TestTables.STRING_TYPE, "de", 30);
+        splitType(split, TestTables.INTEGER_TYPE, null, 80);
+        int typeCount = split.getPackages().get(0).getTypes().size();
+
+        byte[] data = TestTables.write(split);
+        assertArrayEquals(TestTables.write(merged), data);
+        assertEquals(5, countTypeChunks(data));
+        TestTables.assertTablesEqual(merged, TestTables.read(data));
+        // the types are only merged for the write
+        assertEquals(typeCount, split.getPackages().get(0).getTypes().size());
+    }
+
+    // The flags are chosen for the merged type: the upper fifth of the integers alone would be sparse, and the
+    // German strings are sparse as a whole
+    @Test
+    public void testSparseAndOffset16() throws IOException {
+        for (int settings = 0; settings < 8; settings++) {
+            ResTable merged = TestTables.createTable(100, "de");
+            ResTable split = TestTables.createTable(100, "de");
+            splitType(split, TestTables.STRING_TYPE, "de", 30);
+            splitType(split, TestTables.INTEGER_TYPE, null, 80);
+            byte[] expected = TestTables.write(createWriter(merged, settings));
+            byte[] data = TestTables.write(createWriter(split, settings));
+            assertArrayEquals("settings " + settings, expected, data);
+            int sparse = (settings & 1) != 0 ? ResTable.Type.FLAG_SPARSE : 0;
+            int offset16 = (settings & 2) != 0 ? ResTable.Type.FLAG_OFFSET16 : 0;
+            assertEquals(offset16, TestTables.getTypeFlags(data, TestTables.INTEGER_TYPE, null));
+            assertEquals(sparse != 0 ? sparse : offset16, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, "de"));
+            TestTables.assertTablesEqual(merged, TestTables.read(data));
+        }
+    }
+
+    @Test
+    public void testDifferentConfigsAreKept() throws IOException {
+        ResTable table = TestTables.createTable(20);
+        ResTable.Type type = new ResTable.Type(TestTables.STRING_TYPE, TestTables.config(null, 600, 0));
+        type.addEntry(new ResTable.Entry(3, "string_3", new ResValue.Text("wide")));
+        table.getPackages().get(0).addType(type);
+        byte[] data = TestTables.write(table);
+        assertEquals(4, countTypeChunks(data));
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflictingEntries() throws IOException {
+        ResTable table = TestTables.createTable(20);
+        ResTable.Type type = new ResTable.Type(TestTables.STRING_TYPE, TestTables.config(null));
+        type.addEntry(new ResTable.Entry(3, "string_3", new ResValue.Text("again")));
+        table.getPackages().get(0).addType(type);
+        TestTables.write(table);
+    }
+
+}
@@ -0,0 +1,70 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class Offset16Test {
+
+    @Test
+    public void testSmallTypes() throws IOException {
+        ResTable table = TestTables.createTable(300, "de");
+        ArscWriter writer = new ArscWriter(table);
+        writer.setOffset16Enabled(true);
+        byte[] data = TestTables.write(writer);
+        assertEquals(ResTable.Type.FLAG_OFFSET16, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, null));
+        assertEquals(ResTable.Type.FLAG_OFFSET16, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, "de"));
+        // has missing entries
+        assertEquals(ResTable.Type.FLAG_OFFSET16, TestTables.getTypeFlags(data, TestTables.INTEGER_TYPE, null));
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    @Test
+    public void testLargeTypes() throws IOException {
+        // 20000 strings take 320000 bytes, more than 16-bit offsets divided by 4 can address
+        ResTable table = TestTables.createTable(20000, "de");
+        ArscWriter writer = new ArscWriter(table);
+        writer.setOffset16Enabled(true);
+        byte[] data = TestTables.write(writer);
+        assertEquals(0, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, null));
+        assertEquals(ResTable.Type.FLAG_OFFSET16, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, "de"));
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    // 16382 plain entries of 16 bytes and a map entry of 28 bytes take exactly 0xFFFF * 4 bytes; the optional
+    // extra entry starts at that offset, which is 0xFFFF divided by 4, the value of a missing entry
+    private static ResTable createTableOfSize(boolean extraEntry) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "integer", new int[16384]));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        for (int i = 0; i < 16382; i++)
+            type.addEntry(new ResTable.Entry(i, "integer_" + i, new ResValue.Integer(ResValue.TYPE_INT_DEC, i)));
+        ResTable.MapEntry array = new ResTable.MapEntry(16382, "array");
+        array.addValue(0x02000000, new ResValue.Integer(ResValue.TYPE_INT_DEC, 1));
+        type.addEntry(array);
+        if (extraEntry)
+            type.addEntry(new ResTable.Entry(16383, "extra", new ResValue.Integer(ResValue.TYPE_INT_DEC, 2)));
+        pkg.addType(type);
+        return table;
+    }
+
+    @Test
+    public void testOffsetBoundary() throws IOException {
+        for (boolean extraEntry : new boolean[] { false, true }) {
+            ResTable table = createTableOfSize(extraEntry);
+            ArscWriter writer = new ArscWriter(table);
+            writer.setOffset16Enabled(true);
+            byte[] data = TestTables.write(writer);
+            assertEquals(extraEntry ? 0 : ResTable.Type.FLAG_OFFSET16, TestTables.getTypeFlags(data, 1, null));
+            TestTables.assertTablesEqual(table, TestTables.read(data));
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+
+public class ParallelWriteTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSameOutputAsSequential() throws IOException {
+        ResTable table = TestTables.createTable(500, "de", "fr", "ja");
+        byte[] sequential = TestTables.write(table);
+        ArscWriter writer = new ArscWriter(table);
+        writer.setExecutor(executor);
+        byte[] parallel = TestTables.write(writer);
+        assertArrayEquals(sequential, parallel);
+        TestTables.assertTablesEqual(table, TestTables.read(parallel));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWorkerIOExceptionIsRethrown() throws IOException {
+        ResTable table = TestTables.createTable(10);
+        table.getPackages().get(0).addType(new FailingType());
+        ArscWriter writer = new ArscWriter(table);
+        writer.setExecutor(executor);
+        TestTables.write(writer);
+    }
+
+    private static class FailingType extends ResTable.TypeBase {
+
+        @Override
+        public Writer createWriter(ResTable.Package.Writer packageWriter) {
+            return new Writer<FailingType>(this) {
+                @Override
+                public void prepare(DataWritePreparer preparer) throws IOException {
+                    throw new IOException("prepare failed");
+                }
+            };
+        }
+
+        @Override
+        public int getType() {
+            return TYPE_TABLE_TYPE;
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class ResourceIdAllocatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // A table of strings with the keys in the default config and the given languages, all with the id 0
+    private static ResTable createStrings(String[] keys, String... languages) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(TestTables.STRING_TYPE, "string", new int[1]));
+        ResTable.Type type = new ResTable.Type(TestTables.STRING_TYPE, TestTables.config(null));
+        for (String key : keys)
+            type.addEntry(new ResTable.Entry(0, key, new ResValue.Text(key)));
+        pkg.addType(type);
+        for (String language : languages) {
+            // the language is followed by the keys it has
+            String[] parts = language.split(":");
+            type = new ResTable.Type(TestTables.STRING_TYPE, TestTables.config(parts[0]));
+            for (String key : parts[1].split(","))
+                type.addEntry(new ResTable.Entry(0, key, new ResValue.Text(parts[0] + " " + key)));
+            pkg.addType(type);
+        }
+        return table;
+    }
+
+    private static int getId(ResourceIdAllocator allocator, String key) {
+        return allocator.getReference("string", key) & 0xFFFF;
+    }
+
+    // The keys of the entries of the table by their references
+    private static Map<Integer, String> getKeys(ResTable table) {
+        Map<Integer, String> ret = new HashMap<>();
+        ResTable.Package pkg = table.getPackages().get(0);
+        for (ResTable.TypeBase type : pkg.getTypes()) {
+            if (!(type instanceof ResTable.Type))
+                continue;
+            for (ResTable.EntryBase entry : ((ResTable.Type) type).entries) {
+                String prev = ret.put(ResTable.makeReference(pkg.id, ((ResTable.Type) type).id, entry.id), entry.key);
+                if (prev != null && !prev.equals(entry.key))
+                    fail(entry.key + " has the id of " + prev);
+            }
+        }
+        return ret;
+    }
+
+    @Test
+    public void testOrderedByConfigCount() {
+        ResTable table = createStrings(new String[] { "a", "b", "c", "d" }, "de:c", "fr:b,c");
+        ResourceIdAllocator allocator = new ResourceIdAllocator(table.getPackages().get(0));
+        allocator.allocate();
+        assertEquals(0, getId(allocator, "c"));
+        assertEquals(1, getId(allocator, "b"));
+        assertEquals(2, getId(allocator, "a"));
+        assertEquals(3, getId(allocator, "d"));
+        assertEquals(0, allocator.getReference("string", "e"));
+        assertEquals(0, allocator.getReference("integer", "a"));
+        // every key got its own id in all configs
+        assertEquals(4, getKeys(table).size());
+    }
+
+    @Test
+    public void testStableIds() throws IOException {
+        Path mapping = folder.newFile().toPath();
+        ResourceIdAllocator allocator = new ResourceIdAllocator(
+                createStrings(new String[] { "a", "b", "c", "d" }, "de:d").getPackages().get(0));
+        allocator.allocate();
+        allocator.save(mapping);
+        int[] ids = { getId(allocator, "a"), getId(allocator, "b"), getId(allocator, "c"), getId(allocator, "d") };
+
+        // b is gone, the new keys are in more configs than the old ones
+        ResTable table = createStrings(new String[] { "a", "c", "d", "e", "f" }, "de:d,e,f", "fr:e,f");
+        allocator = new ResourceIdAllocator(table.getPackages().get(0));
+        allocator.load(mapping);
+        allocator.allocate();
+        assertEquals(ids[0], getId(allocator, "a"));
+        assertEquals(ids[2], getId(allocator, "c"));
+        assertEquals(ids[3], getId(allocator, "d"));
+        // the id of b is reused first
+        assertEquals(ids[1], getId(allocator, "e"));
+        assertEquals(4, getId(allocator, "f"));
+
+        // the ids survive a save and load as they are
+        allocator.save(mapping);
+        ResourceIdAllocator reloaded = new ResourceIdAllocator(table.getPackages().get(0));
+        reloaded.load(mapping);
+        reloaded.allocate();
+        for (String key : new String[] { "a", "c", "d", "e", "f" })
+            assertEquals(allocator.getReference("string", key), reloaded.getReference("string", key));
+    }
+
+    @Test
+    public void testReferencesOfWrittenTable() throws IOException {
+        ResTable table = createStrings(new String[] { "a", "b", "c" }, "de:c,b");
+        ResourceIdAllocator allocator = new ResourceIdAllocator(table.getPackages().get(0));
+        allocator.allocate();
+        Map<Integer, String> keys = getKeys(TestTables.read(TestTables.write(table)));
+        for (String key : new String[] { "a", "b", "c" })
+            assertEquals(key, keys.get(allocator.getReference("string", key)));
+    }
+
+    @Test
+    public void testFlagsFollowKeys() throws IOException {
+        // the translated strings get the lowest ids, and every other string is public
+        ResTable table = TestTables.createTable(30, "de");
+        ResTable.TypeSpec spec = (ResTable.TypeSpec) table.getPackages().get(0).getTypes().get(0);
+        ResourceIdAllocator allocator = new ResourceIdAllocator(table.getPackages().get(0));
+        allocator.allocate();
+        assertEquals(1, getId(allocator, "string_3"));
+        for (int i = 0; i < 30; i++) {
+            int id = getId(allocator, "string_" + i);
+            assertEquals(i % 2 == 0 ? ResTable.TypeSpec.SPEC_PUBLIC : 0, spec.flags[id]);
+        }
+        ResTable read = TestTables.read(TestTables.write(table));
+        assertEquals(TestTables.describe(table), TestTables.describe(read));
+    }
+
+    @Test
+    public void testSharedIdsGetNoFlags() {
+        ResTable table = createStrings(new String[] { "a", "b", "c" });
+        ResTable.TypeSpec spec = (ResTable.TypeSpec) table.getPackages().get(0).getTypes().get(0);
+        spec.flags[0] = ResTable.TypeSpec.SPEC_PUBLIC;
+        new ResourceIdAllocator(table.getPackages().get(0)).allocate();
+        assertEquals(3, spec.flags.length);
+        for (int flags : spec.flags)
+            assertEquals(0, flags);
+    }
+
+    @Test
+    public void testReferencesAreRemapped() throws IOException {
+        ResTable table = TestTables.createTable(30, "de");
+        new ResourceIdAllocator(table.getPackages().get(0)).allocate();
+        ResTable read = TestTables.read(TestTables.write(table));
+        Map<Integer, String> keys = getKeys(read);
+        int references = 0;
+        for (ResTable.TypeBase type : read.getPackages().get(0).getTypes()) {
+            if (!(type instanceof ResTable.Type))
+                continue;
+            for (ResTable.EntryBase entry : ((ResTable.Type) type).entries) {
+                int i = Integer.parseInt(entry.key.substring(entry.key.indexOf('_') + 1));
+                if (entry instanceof ResTable.MapEntry) {
+                    if (i > 0)
+                        assertEquals("style_" + (i - 1), keys.get(((ResTable.MapEntry) entry).parent));
+                    references++;
+                    continue;
+                }
+                ResValue value = ((ResTable.Entry) entry).getValue();
+                if (value instanceof ResValue.Integer &&
+                        ((ResValue.Integer) value).dataType == ResValue.TYPE_REFERENCE) {
+                    assertEquals("string_" + i, keys.get(((ResValue.Integer) value).data));
+                    references++;
+                }
+            }
+        }
+        // the styles, and the integers at multiples of 3 that aren't missing
+        assertEquals(30 + 8, references);
+    }
+
+    @Test
+    public void testReferenceToSharedIdIsRejected() {
+        ResTable table = createStrings(new String[] { "a", "b" });
+        ResTable.Package pkg = table.getPackages().get(0);
+        pkg.addType(new ResTable.TypeSpec(TestTables.INTEGER_TYPE, "integer", new int[1]));
+        ResTable.Type integers = new ResTable.Type(TestTables.INTEGER_TYPE, TestTables.config(null));
+        integers.addEntry(new ResTable.Entry(5, "ref",
+                new ResValue.Reference(TestTables.PACKAGE_ID, TestTables.STRING_TYPE, 0)));
+        pkg.addType(integers);
+        try {
+            new ResourceIdAllocator(pkg).allocate();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // nothing was renumbered
+            assertEquals(5, integers.entries.get(0).id);
+        }
+    }
+
+}
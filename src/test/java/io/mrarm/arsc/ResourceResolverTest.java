@@ -0,0 +1,259 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class ResourceResolverTest {
+
+    private static final int STRING_ID = ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.STRING_TYPE, 0);
+
+    // A table with a string defined in each of the configs, in the given order
+    private static ResTable createTable(List<ResTable.Config> configs) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(TestTables.STRING_TYPE, "string", new int[1]));
+        for (ResTable.Config config : configs) {
+            ResTable.Type type = new ResTable.Type(TestTables.STRING_TYPE, config);
+            type.addEntry(new ResTable.Entry(0, "name", new ResValue.Text(describe(config))));
+            pkg.addType(type);
+        }
+        return table;
+    }
+
+    private static String describe(ResTable.Config config) {
+        return Arrays.toString(config.toByteArray());
+    }
+
+    private static String resolve(ResourceResolver resolver, ResTable.Config device) {
+        ResValue value = resolver.resolveValue(STRING_ID, device);
+        return value != null ? ((ResValue.Text) value).data : null;
+    }
+
+    private static <T> List<List<T>> permutations(List<T> items) {
+        List<List<T>> ret = new ArrayList<>();
+        if (items.isEmpty()) {
+            ret.add(new ArrayList<T>());
+            return ret;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            List<T> rest = new ArrayList<>(items);
+            T item = rest.remove(i);
+            for (List<T> permutation : permutations(rest)) {
+                permutation.add(0, item);
+                ret.add(permutation);
+            }
+        }
+        return ret;
+    }
+
+    // Checks that the device resolves to the expected config, whatever the order of the Type chunks
+    private static void assertResolves(List<ResTable.Config> configs, ResTable.Config device,
+                                       ResTable.Config expected) {
+        for (List<ResTable.Config> order : permutations(configs)) {
+            ResourceResolver resolver = new ResourceResolver(createTable(order));
+            assertEquals("chunk order " + order.indexOf(expected), describe(expected), resolve(resolver, device));
+        }
+    }
+
+    @Test
+    public void testMinimumQualifiersNeedDeviceValue() {
+        ResTable.Config v21 = TestTables.config(null, 0, 21);
+        ResTable.Config w600dp = TestTables.config(null, 600, 0);
+        ResTable.Config any = TestTables.config(null);
+        List<ResTable.Config> configs = Arrays.asList(v21, w600dp, any);
+        assertResolves(configs, TestTables.config(null), any);
+        assertResolves(configs, TestTables.config(null, 0, 19), any);
+        assertResolves(configs, TestTables.config(null, 0, 21), v21);
+        assertResolves(configs, TestTables.config(null, 599, 28), v21);
+        assertResolves(configs, TestTables.config(null, 600, 19), w600dp);
+        // the screen width takes precedence over the SDK version
+        assertResolves(configs, TestTables.config(null, 720, 28), w600dp);
+    }
+
+    // The default config with a byte or short of the written config set, e.g. 12 for the orientation, 14 for the
+    // density and 18 for the input flags
+    private static ResTable.Config config(int offset, int value, boolean isShort) {
+        ByteBuffer data = ByteBuffer.wrap(TestTables.config(null).toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        if (isShort)
+            data.putShort(offset, (short) value);
+        else
+            data.put(offset, (byte) value);
+        return ResTable.Config.read(data);
+    }
+
+    private static ResTable.Config orientation(int orientation) {
+        return config(12, orientation, false);
+    }
+
+    private static ResTable.Config density(int density) {
+        return config(14, density, true);
+    }
+
+    @Test
+    public void testExactQualifiersNeedEqualDeviceValue() {
+        ResTable.Config land = orientation(2);
+        ResTable.Config any = TestTables.config(null);
+        // the qualified config comes first, so a match against an unset device value would win
+        List<ResTable.Config> configs = Arrays.asList(land, any);
+        ResourceResolver resolver = new ResourceResolver(createTable(configs));
+        assertEquals(describe(any), resolve(resolver, new ResTable.Config()));
+        assertResolves(configs, TestTables.config(null), any);
+        assertResolves(configs, orientation(1), any);
+        assertResolves(configs, orientation(2), land);
+    }
+
+    @Test
+    public void testKeysHiddenCompatibility() {
+        ResTable.Config keysExposed = config(18, 1, false);
+        ResTable.Config keysSoft = config(18, 3, false);
+        ResTable.Config any = TestTables.config(null);
+        // a device with a soft keyboard can use the resources for exposed keys, but prefers its own
+        assertResolves(Arrays.asList(keysExposed, any), keysSoft, keysExposed);
+        assertResolves(Arrays.asList(keysExposed, keysSoft, any), keysSoft, keysSoft);
+        assertResolves(Arrays.asList(keysExposed, keysSoft, any), keysExposed, keysExposed);
+        assertResolves(Arrays.asList(keysSoft, any), keysExposed, any);
+    }
+
+    @Test
+    public void testDensity() {
+        ResTable.Config mdpi = density(160);
+        ResTable.Config hdpi = density(240);
+        ResTable.Config xxhdpi = density(480);
+        List<ResTable.Config> configs = Arrays.asList(mdpi, hdpi, xxhdpi);
+        assertResolves(configs, density(240), hdpi);
+        assertResolves(configs, density(640), xxhdpi);
+        assertResolves(configs, density(120), mdpi);
+        // scaling down is preferred, unless scaling up is less than half as far
+        assertResolves(configs, density(320), xxhdpi);
+        assertResolves(Arrays.asList(density(280), xxhdpi), density(300), density(280));
+        // an unset device density is taken as mdpi
+        assertResolves(configs, TestTables.config(null), mdpi);
+        // anydpi always wins
+        ResTable.Config anydpi = density(0xfffe);
+        assertResolves(Arrays.asList(anydpi, mdpi, xxhdpi), density(480), anydpi);
+        assertResolves(Arrays.asList(anydpi, mdpi, xxhdpi), TestTables.config(null), anydpi);
+    }
+
+    @Test
+    public void testClosestMinimumWins() {
+        ResTable.Config v21 = TestTables.config(null, 0, 21);
+        ResTable.Config v26 = TestTables.config(null, 0, 26);
+        ResTable.Config any = TestTables.config(null);
+        List<ResTable.Config> configs = Arrays.asList(v21, v26, any);
+        assertResolves(configs, TestTables.config(null, 0, 24), v21);
+        assertResolves(configs, TestTables.config(null, 0, 30), v26);
+    }
+
+    @Test
+    public void testLanguage() {
+        ResTable.Config de = TestTables.config("de");
+        ResTable.Config deV21 = TestTables.config("de", 0, 21);
+        ResTable.Config v21 = TestTables.config(null, 0, 21);
+        ResTable.Config any = TestTables.config(null);
+        List<ResTable.Config> configs = Arrays.asList(de, deV21, v21, any);
+        assertResolves(configs, TestTables.config("fr", 0, 19), any);
+        assertResolves(configs, TestTables.config("fr", 0, 21), v21);
+        assertResolves(configs, TestTables.config("de", 0, 19), de);
+        // the language takes precedence over the SDK version
+        assertResolves(configs, TestTables.config("de", 0, 28), deV21);
+        assertResolves(configs, TestTables.config(null, 0, 28), v21);
+    }
+
+    @Test
+    public void testMissingEntriesFallBack() {
+        ResTable table = TestTables.createTable(30, "de");
+        ResourceResolver resolver = new ResourceResolver(table);
+        ResTable.Config de = TestTables.config("de");
+        int translated = ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.STRING_TYPE, 3);
+        int untranslated = ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.STRING_TYPE, 4);
+        assertEquals("de 3", ((ResValue.Text) resolver.resolveValue(translated, de)).data);
+        assertEquals("value 4", ((ResValue.Text) resolver.resolveValue(untranslated, de)).data);
+        assertNull(resolver.resolve(ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.STRING_TYPE, 30), de));
+        assertNull(resolver.resolve(ResTable.makeReference(TestTables.PACKAGE_ID, 9, 0), de));
+    }
+
+    @Test
+    public void testResolveValueFollowsReferences() {
+        ResTable table = TestTables.createTable(30, "de");
+        ResourceResolver resolver = new ResourceResolver(table);
+        // integer 3 is a reference to string 3
+        int reference = ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.INTEGER_TYPE, 3);
+        assertEquals("de 3", ((ResValue.Text) resolver.resolveValue(reference, TestTables.config("de"))).data);
+        // a bag has no single value
+        assertNull(resolver.resolveValue(ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.STYLE_TYPE, 0),
+                TestTables.config(null)));
+    }
+
+    @Test
+    public void testReferenceLoop() {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "integer", new int[2]));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        type.addEntry(new ResTable.Entry(0, "a", new ResValue.Reference(TestTables.PACKAGE_ID, 1, 1)));
+        type.addEntry(new ResTable.Entry(1, "b", new ResValue.Reference(TestTables.PACKAGE_ID, 1, 0)));
+        pkg.addType(type);
+        ResourceResolver resolver = new ResourceResolver(table);
+        assertNull(resolver.resolveValue(ResTable.makeReference(TestTables.PACKAGE_ID, 1, 0),
+                TestTables.config(null)));
+    }
+
+    @Test
+    public void testModifiedConfigIsNotCached() {
+        ResourceResolver resolver = new ResourceResolver(TestTables.createTable(30, "de", "fr"));
+        ResTable.Config device = TestTables.config("de");
+        int id = ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.STRING_TYPE, 3);
+        assertEquals("de 3", ((ResValue.Text) resolver.resolveValue(id, device)).data);
+        device.language = "fr";
+        assertEquals("fr 3", ((ResValue.Text) resolver.resolveValue(id, device)).data);
+        ResourceResolver.Selection selection = resolver.select(device);
+        device.language = "de";
+        assertEquals("fr", selection.getConfig().language);
+        assertEquals("fr 3", ((ResValue.Text) selection.resolveValue(id)).data);
+    }
+
+    @Test
+    public void testAlternatingConfigs() {
+        ResourceResolver resolver = new ResourceResolver(TestTables.createTable(30, "de", "fr"));
+        int id = ResTable.makeReference(TestTables.PACKAGE_ID, TestTables.STRING_TYPE, 3);
+        for (int i = 0; i < 40; i++) {
+            // more distinct configs than are kept, in turns
+            String language = i % 2 == 0 ? "de" : "fr";
+            ResTable.Config device = TestTables.config(language, 0, i % 20);
+            assertEquals(language + " 3", ((ResValue.Text) resolver.resolveValue(id, device)).data);
+        }
+    }
+
+    @Test
+    public void testResolveWrittenTable() throws Exception {
+        ResTable table = TestTables.createTable(100, "de", "fr");
+        ResourceResolver expected = new ResourceResolver(table);
+        ResourceResolver actual = new ResourceResolver(new ArscReader(ByteBuffer.wrap(TestTables.write(table))));
+        for (String language : new String[] { null, "de", "fr", "es" }) {
+            ResTable.Config device = TestTables.config(language);
+            for (int type = TestTables.STRING_TYPE; type <= TestTables.STYLE_TYPE; type++) {
+                for (int i = 0; i <= 100; i++) {
+                    int id = ResTable.makeReference(TestTables.PACKAGE_ID, type, i);
+                    ResValue expectedValue = expected.resolveValue(id, device);
+                    ResValue actualValue = actual.resolveValue(id, device);
+                    assertEquals(expectedValue != null ? TestTables.describe(expectedValue) : null,
+                            actualValue != null ? TestTables.describe(actualValue) : null);
+                }
+            }
+        }
+    }
+
+}
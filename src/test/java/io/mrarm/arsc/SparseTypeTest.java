@@ -0,0 +1,94 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class SparseTypeTest {
+
+    @Test
+    public void testSparseBelowThreshold() throws IOException {
+        ResTable table = TestTables.createTable(300, "de");
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold(0.5f);
+        byte[] data = TestTables.write(writer);
+        // the translations define a third of the strings, the integers four fifths
+        assertEquals(ResTable.Type.FLAG_SPARSE, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, "de"));
+        assertEquals(0, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, null));
+        assertEquals(0, TestTables.getTypeFlags(data, TestTables.INTEGER_TYPE, null));
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws IOException {
+        ResTable table = TestTables.createTable(300, "de");
+        byte[] data = TestTables.write(table);
+        assertEquals(0, TestTables.getTypeFlags(data, TestTables.STRING_TYPE, "de"));
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    @Test
+    public void testHighEntryIds() throws IOException {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "integer", new int[0xFFFF + 1]));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        for (int id : new int[] { 0, 1000, 40000, 0xFFFF })
+            type.addEntry(new ResTable.Entry(id, "integer_" + id, new ResValue.Integer(ResValue.TYPE_INT_DEC, id)));
+        pkg.addType(type);
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold(0.5f);
+        byte[] data = TestTables.write(writer);
+        assertEquals(ResTable.Type.FLAG_SPARSE, TestTables.getTypeFlags(data, 1, null));
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    // A type with the given number of entries, the last of which has the given id
+    private static ResTable createIntegerTable(int entryCount, int maxEntryId) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "integer", new int[maxEntryId + 1]));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        for (int i = 0; i < entryCount; i++) {
+            int id = i == entryCount - 1 ? maxEntryId : i;
+            type.addEntry(new ResTable.Entry(id, "integer_" + id, new ResValue.Integer(ResValue.TYPE_INT_DEC, id)));
+        }
+        pkg.addType(type);
+        return table;
+    }
+
+    private static int writeSparse(ResTable table, float threshold) throws IOException {
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold(threshold);
+        byte[] data = TestTables.write(writer);
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+        return TestTables.getTypeFlags(data, 1, null);
+    }
+
+    // A type is sparse only if strictly less than the threshold of its id range is present
+    @Test
+    public void testThresholdBoundary() throws IOException {
+        assertEquals(ResTable.Type.FLAG_SPARSE, writeSparse(createIntegerTable(49, 99), 0.5f));
+        assertEquals(0, writeSparse(createIntegerTable(50, 99), 0.5f));
+        assertEquals(ResTable.Type.FLAG_SPARSE, writeSparse(createIntegerTable(24, 99), 0.25f));
+        assertEquals(0, writeSparse(createIntegerTable(25, 99), 0.25f));
+        // a full type is never sparse, even with a threshold of 1
+        assertEquals(ResTable.Type.FLAG_SPARSE, writeSparse(createIntegerTable(99, 99), 1));
+        assertEquals(0, writeSparse(createIntegerTable(100, 99), 1));
+    }
+
+    @Test
+    public void testEntryIdBoundary() throws IOException {
+        // sparse entries store their ids in 16 bits
+        assertEquals(ResTable.Type.FLAG_SPARSE, writeSparse(createIntegerTable(10, 0xFFFF), 0.5f));
+        assertEquals(0, writeSparse(createIntegerTable(10, 0x10000), 0.5f));
+    }
+
+}
@@ -0,0 +1,147 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+
+public class SplitWriterTest {
+
+    private static byte[] write(ArscSplitWriter writer, int split) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(split, out);
+        return out.toByteArray();
+    }
+
+    private static List<Collection<ResTable.Config>> splits(String... languages) {
+        List<Collection<ResTable.Config>> ret = new ArrayList<>();
+        for (String language : languages) {
+            List<ResTable.Config> split = new ArrayList<>();
+            for (String part : language.split(","))
+                split.add(TestTables.config(part));
+            ret.add(split);
+        }
+        return ret;
+    }
+
+    // The configs of the Type chunks in the table
+    private static Set<ResTable.Config> getConfigs(byte[] data) throws IOException {
+        Set<ResTable.Config> ret = new HashSet<>();
+        for (ArscReader.TypeReader type : new ArscReader(ByteBuffer.wrap(data)).getPackage(TestTables.PACKAGE_ID)
+                .getTypes())
+            ret.add(type.getConfig());
+        return ret;
+    }
+
+    private static Set<ResTable.Config> configs(String... languages) {
+        Set<ResTable.Config> ret = new HashSet<>();
+        for (String language : languages)
+            ret.add(TestTables.config(language));
+        return ret;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ResTable table = TestTables.createTable(200, "de", "fr", "ja");
+        TreeSet<String> union = new TreeSet<>();
+        try (ArscSplitWriter writer = new ArscSplitWriter(table, splits("de", "fr,ja"))) {
+            assertEquals(2, writer.getSplitCount());
+            byte[] base = write(writer, ArscSplitWriter.BASE);
+            byte[] de = write(writer, 0);
+            byte[] frJa = write(writer, 1);
+            assertEquals(configs((String) null), getConfigs(base));
+            assertEquals(configs("de"), getConfigs(de));
+            assertEquals(configs("fr", "ja"), getConfigs(frJa));
+            // the splits only have the strings of their own entries
+            int baseStrings = new ArscReader(ByteBuffer.wrap(base)).getGlobalStringPool().getStringCount();
+            int deStrings = new ArscReader(ByteBuffer.wrap(de)).getGlobalStringPool().getStringCount();
+            assertTrue(deStrings < baseStrings);
+            for (byte[] data : new byte[][] { base, de, frJa })
+                union.addAll(TestTables.describe(TestTables.read(data)));
+        }
+        assertEquals(new TreeSet<>(TestTables.describe(table)), union);
+    }
+
+    @Test
+    public void testWithSettings() throws IOException {
+        ResTable table = TestTables.createTable(200, "de", "fr");
+        ArscWriter settings = new ArscWriter(table);
+        settings.setCompactEntriesEnabled(true);
+        settings.setSparseTypeThreshold(0.5f);
+        try (ArscSplitWriter writer = new ArscSplitWriter(table, splits("de"), settings)) {
+            TreeSet<String> union = new TreeSet<>();
+            union.addAll(TestTables.describe(TestTables.read(write(writer, ArscSplitWriter.BASE))));
+            byte[] de = write(writer, 0);
+            // writing a table again gives the same output
+            assertArrayEquals(de, write(writer, 0));
+            union.addAll(TestTables.describe(TestTables.read(de)));
+            assertEquals(new TreeSet<>(TestTables.describe(table)), union);
+        }
+    }
+
+    @Test
+    public void testEmptySplit() throws IOException {
+        ResTable table = TestTables.createTable(20, "de");
+        try (ArscSplitWriter writer = new ArscSplitWriter(table, splits("ja"))) {
+            TestTables.assertTablesEqual(table, TestTables.read(write(writer, ArscSplitWriter.BASE)));
+            // a split without any types has no packages either
+            assertTrue(TestTables.read(write(writer, 0)).getPackages().isEmpty());
+        }
+    }
+
+    // Every config can be moved out of the base table, the default one included
+    @Test
+    public void testAllConfigsInSplits() throws IOException {
+        ResTable table = TestTables.createTable(50, "de");
+        List<Collection<ResTable.Config>> splits = new ArrayList<>();
+        splits.add(configs((String) null));
+        splits.add(configs("de"));
+        try (ArscSplitWriter writer = new ArscSplitWriter(table, splits)) {
+            byte[] base = write(writer, ArscSplitWriter.BASE);
+            assertTrue(getConfigs(base).isEmpty());
+            TreeSet<String> union = new TreeSet<>();
+            for (int split = 0; split < 2; split++) {
+                byte[] data = write(writer, split);
+                assertEquals(splits.get(split), getConfigs(data));
+                union.addAll(TestTables.describe(TestTables.read(data)));
+            }
+            assertEquals(new TreeSet<>(TestTables.describe(table)), union);
+        }
+    }
+
+    // The entries keep their type and entry ids in the splits, as the splits share the ids with the base table
+    @Test
+    public void testSplitKeepsIds() throws IOException {
+        ResTable table = TestTables.createTable(50, "de");
+        try (ArscSplitWriter writer = new ArscSplitWriter(table, splits("de"))) {
+            ArscReader.PackageReader pkg = new ArscReader(ByteBuffer.wrap(write(writer, 0)))
+                    .getPackage(TestTables.PACKAGE_ID);
+            assertEquals(TestTables.PACKAGE_NAME, pkg.getName());
+            ArscReader.TypeReader type = pkg.getTypes().get(0);
+            assertEquals(TestTables.STRING_TYPE, type.getId());
+            for (int id : type.getEntryIds())
+                assertEquals("string_" + id, type.getEntry(id).key);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigInTwoSplits() throws IOException {
+        try (ArscSplitWriter writer = new ArscSplitWriter(TestTables.createTable(20, "de"), splits("de", "de"))) {
+            write(writer, ArscSplitWriter.BASE);
+        }
+    }
+
+}
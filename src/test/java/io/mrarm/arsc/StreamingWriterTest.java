@@ -0,0 +1,127 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class StreamingWriterTest {
+
+    // An entry source which counts how many times it was iterated
+    private static class CountingSource implements Iterable<ResTable.EntryBase> {
+
+        private final List<ResTable.EntryBase> entries;
+        int iterations;
+
+        CountingSource(List<ResTable.EntryBase> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public Iterator<ResTable.EntryBase> iterator() {
+            iterations++;
+            return entries.iterator();
+        }
+
+    }
+
+    // A copy of the table where every Type pulls its entries from a source, optionally in reverse order
+    private static ResTable toStreaming(ResTable table, boolean reverse, List<CountingSource> sources) {
+        ResTable ret = new ResTable();
+        for (ResTable.Package pkg : table.getPackages()) {
+            ResTable.Package copy = new ResTable.Package(pkg.id, pkg.name);
+            for (ResTable.TypeBase type : pkg.getTypes()) {
+                if (!(type instanceof ResTable.Type)) {
+                    copy.addType(type);
+                    continue;
+                }
+                ResTable.Type streaming = new ResTable.Type(((ResTable.Type) type).id, ((ResTable.Type) type).config);
+                List<ResTable.EntryBase> entries = new ArrayList<>(((ResTable.Type) type).entries);
+                if (reverse)
+                    Collections.reverse(entries);
+                CountingSource source = new CountingSource(entries);
+                sources.add(source);
+                streaming.setEntrySource(source);
+                copy.addType(streaming);
+            }
+            ret.addPackage(copy);
+        }
+        return ret;
+    }
+
+    private static ArscWriter createWriter(ResTable table, int settings) {
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold((settings & 1) != 0 ? 0.9f : 0);
+        writer.setOffset16Enabled((settings & 2) != 0);
+        writer.setCompactEntriesEnabled((settings & 4) != 0);
+        writer.setEntryDeduplicationEnabled((settings & 8) != 0);
+        return writer;
+    }
+
+    @Test
+    public void testSameAsEntryList() throws IOException {
+        ResTable table = TestTables.createTable(300, "de", "fr");
+        for (int settings = 0; settings < 16; settings++) {
+            List<CountingSource> sources = new ArrayList<>();
+            byte[] data = TestTables.write(createWriter(toStreaming(table, false, sources), settings));
+            assertArrayEquals("settings " + settings, TestTables.write(createWriter(table, settings)), data);
+            // once to collect the keys, strings and sizes, and once to write the entries
+            for (CountingSource source : sources)
+                assertEquals(2, source.iterations);
+        }
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        ResTable table = TestTables.createTable(300, "de", "fr");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int settings = 0; settings < 16; settings++) {
+                ArscWriter writer = createWriter(toStreaming(table, false, new ArrayList<>()), settings);
+                writer.setExecutor(executor);
+                assertArrayEquals("settings " + settings, TestTables.write(createWriter(table, settings)),
+                        TestTables.write(writer));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnorderedSource() throws IOException {
+        ResTable table = TestTables.createTable(300, "de", "fr");
+        for (int settings = 0; settings < 16; settings++) {
+            byte[] data = TestTables.write(createWriter(toStreaming(table, true, new ArrayList<>()), settings));
+            TestTables.assertTablesEqual(table, TestTables.read(data));
+        }
+    }
+
+    // With more keys than fit in the compact form, the sizes of the entries depend on their final key indices
+    @Test
+    public void testCompactEntriesWithManyKeys() throws IOException {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        int entryCount = 0x10100;
+        pkg.addType(new ResTable.TypeSpec(1, "integer", new int[entryCount]));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        for (int i = 0; i < entryCount; i++)
+            type.addEntry(new ResTable.Entry(i, "integer_" + i, new ResValue.Integer(ResValue.TYPE_INT_DEC, i)));
+        pkg.addType(type);
+        byte[] data = TestTables.write(createWriter(toStreaming(table, false, new ArrayList<>()), 4));
+        assertArrayEquals(TestTables.write(createWriter(table, 4)), data);
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+}
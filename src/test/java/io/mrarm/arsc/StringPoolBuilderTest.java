@@ -0,0 +1,220 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResStringPool;
+import io.mrarm.arsc.chunks.ResTable;
+
+public class StringPoolBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The encoding of a pool entry the way the builder did it with String.getBytes
+    private static byte[] encodeWithGetBytes(String str, boolean utf8) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (utf8) {
+            byte[] val = str.getBytes(StandardCharsets.UTF_8);
+            writeLengthUTF8(out, str.getBytes(StandardCharsets.UTF_16LE).length / 2);
+            writeLengthUTF8(out, val.length);
+            out.write(val, 0, val.length);
+            out.write(0);
+        } else {
+            byte[] val = str.getBytes(StandardCharsets.UTF_16LE);
+            int length = val.length / 2;
+            if (length >= 0x8000) {
+                int lo = length & 0xFFFF;
+                int hi = ((length >> 16) & 0x7FFF) | 0x8000;
+                out.write(hi & 0xFF);
+                out.write((hi >> 8) & 0xFF);
+                out.write(lo & 0xFF);
+                out.write((lo >> 8) & 0xFF);
+            } else {
+                out.write(length & 0xFF);
+                out.write((length >> 8) & 0xFF);
+            }
+            out.write(val, 0, val.length);
+            out.write(0);
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeLengthUTF8(ByteArrayOutputStream out, int length) {
+        if (length >= 0x80) {
+            out.write(((length >> 8) & 0x7F) | 0x80);
+            out.write(length & 0xFF);
+        } else {
+            out.write(length);
+        }
+    }
+
+    private static String repeat(String str, int count) {
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            ret.append(str);
+        return ret.toString();
+    }
+
+    private static List<String> createStrings() {
+        List<String> ret = new ArrayList<>(Arrays.asList(
+                "", "a", "hello world", "\u00E9t\u00E9", "\u4E2D\u6587\u5B57\u7B26",
+                "pair \uD83D\uDE00 pair", "\uD83D\uDE00",
+                "lone high \uD83D", "lone low \uDE00", "\uDE00\uD83D", "\uD83D", "end \uD83D"));
+        // lengths around the points where the length fields take another byte (UTF-8) or code unit (UTF-16),
+        // counted in chars and in encoded bytes
+        for (int length : new int[] { 0x7F, 0x80, 0x81, 0x7FFF, 0x8000, 0x8001 }) {
+            ret.add(repeat("a", length));
+            ret.add(repeat("\u00E9", length));
+            ret.add(repeat("\u4E2D", length));
+            ret.add(repeat("a", length - 1) + "\uD83D");
+        }
+        // 0x7F chars, 0x80 bytes in UTF-8
+        ret.add(repeat("a", 0x7E) + "\u00E9");
+        // surrogate pairs long enough to make the encoder grow its buffer
+        ret.add(repeat("\uD83D\uDE00", 0x4001));
+        return ret;
+    }
+
+    private static void assertSameEncoding(boolean utf8) throws IOException {
+        List<String> strings = createStrings();
+        StringPoolBuilder builder = new StringPoolBuilder(utf8);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        List<Integer> expectedOffsets = new ArrayList<>();
+        for (String str : strings) {
+            assertEquals(expectedOffsets.size(), builder.appendString(str));
+            expectedOffsets.add(expected.size());
+            byte[] encoded = encodeWithGetBytes(str, utf8);
+            expected.write(encoded, 0, encoded.length);
+        }
+        ResStringPool pool = builder.build();
+        assertArrayEquals(expected.toByteArray(), pool.stringData.toByteArray());
+        for (int i = 0; i < strings.size(); i++)
+            assertEquals("string " + i, (int) expectedOffsets.get(i), pool.stringOffsets[i]);
+    }
+
+    @Test
+    public void testUtf8SameAsGetBytes() throws IOException {
+        assertSameEncoding(true);
+    }
+
+    @Test
+    public void testUtf16SameAsGetBytes() throws IOException {
+        assertSameEncoding(false);
+    }
+
+    @Test
+    public void testEncodingCacheSameAsGetBytes() throws IOException {
+        StringEncodingCache cache = new StringEncodingCache();
+        for (boolean utf8 : new boolean[] { true, false }) {
+            // the second builder copies what the first one encoded
+            for (int i = 0; i < 2; i++) {
+                StringPoolBuilder builder = new StringPoolBuilder(utf8);
+                builder.setEncodingCache(cache);
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                for (String str : createStrings()) {
+                    builder.appendString(str);
+                    byte[] encoded = encodeWithGetBytes(str, utf8);
+                    expected.write(encoded, 0, encoded.length);
+                }
+                assertArrayEquals(expected.toByteArray(), builder.build().stringData.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testInterning() throws IOException {
+        StringPoolBuilder interning = new StringPoolBuilder(true, true);
+        StringPoolBuilder plain = new StringPoolBuilder(true, false);
+        String[] strings = { "a", "b", "a", "", "b", "\uD83D\uDE00", "", "\uD83D\uDE00" };
+        int[] expected = { 0, 1, 0, 2, 1, 3, 2, 3 };
+        for (int i = 0; i < strings.length; i++) {
+            assertEquals(expected[i], interning.appendString(strings[i]));
+            assertEquals(i, plain.appendString(strings[i]));
+        }
+        assertEquals(4, interning.getStringCount());
+        assertEquals(strings.length, interning.getAppendedCount());
+        assertEquals(strings.length, plain.getStringCount());
+        // the interned pool is the plain one without the repeated strings
+        StringPoolBuilder distinct = new StringPoolBuilder(true, false);
+        for (String str : new String[] { "a", "b", "", "\uD83D\uDE00" })
+            distinct.appendString(str);
+        ResStringPool pool = interning.build();
+        ResStringPool distinctPool = distinct.build();
+        assertArrayEquals(distinctPool.stringOffsets, pool.stringOffsets);
+        assertArrayEquals(distinctPool.stringData.toByteArray(), pool.stringData.toByteArray());
+        assertTrue(pool.stringData.size() < plain.build().stringData.size());
+    }
+
+    @Test
+    public void testGlobalPoolIsInterned() throws IOException {
+        // 100 strings with 50 distinct values and 100 distinct style strings
+        ResTable table = TestTables.createTable(100);
+        byte[] data = TestTables.write(table);
+        assertEquals(150, new ArscReader(ByteBuffer.wrap(data)).getGlobalStringPool().getStringCount());
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return !files.findAny().isPresent();
+        }
+    }
+
+    @Test
+    public void testSpilling() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        StringPoolBuilder expected = new StringPoolBuilder(true, true);
+        StringPoolBuilder spilling = new StringPoolBuilder(true, true);
+        // any limit below two blocks spills all the full blocks
+        spilling.setSpilling(1, directory);
+        for (int i = 0; i < 3; i++) {
+            for (String str : createStrings())
+                assertEquals(expected.appendString(str + i), spilling.appendString(str + i));
+        }
+        ResStringPool expectedPool = expected.build();
+        ResStringPool pool = spilling.build();
+        assertTrue(pool.stringData.isSpilled());
+        assertArrayEquals(expectedPool.stringOffsets, pool.stringOffsets);
+        assertArrayEquals(expectedPool.stringData.toByteArray(), pool.stringData.toByteArray());
+        // the data is read back from the file as many times as it's written
+        assertArrayEquals(expectedPool.stringData.toByteArray(), pool.stringData.toByteArray());
+        spilling.close();
+        assertTrue(isEmpty(directory));
+        try {
+            pool.stringData.toByteArray();
+            fail();
+        } catch (IOException e) {
+            // the file may be unlinked as soon as it's opened, so closing it is what deletes it
+        }
+    }
+
+    @Test
+    public void testSpillingTable() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        ResTable table = TestTables.createTable(10000, "de");
+        ArscWriter writer = new ArscWriter(table);
+        writer.setStringPoolSpilling(1, directory);
+        assertArrayEquals(TestTables.write(table), TestTables.write(writer));
+        assertTrue(isEmpty(directory));
+    }
+
+}
@@ -0,0 +1,166 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+// Sample tables for the tests, and a comparison of tables by their content which ignores how they were laid out
+final class TestTables {
+
+    static final int PACKAGE_ID = 0x7f;
+    static final String PACKAGE_NAME = "com.example";
+    static final int STRING_TYPE = 1;
+    static final int INTEGER_TYPE = 2;
+    static final int STYLE_TYPE = 3;
+
+    private TestTables() {
+    }
+
+    // A package with strings, integers and styles in the default config, and translations of every third string
+    // in each of the languages. Every fifth integer is missing, so that the types have holes.
+    static ResTable createTable(int entryCount, String... languages) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(PACKAGE_ID, PACKAGE_NAME);
+        table.addPackage(pkg);
+        int[] stringFlags = new int[entryCount];
+        for (int i = 0; i < entryCount; i += 2)
+            stringFlags[i] = ResTable.TypeSpec.SPEC_PUBLIC;
+        pkg.addType(new ResTable.TypeSpec(STRING_TYPE, "string", stringFlags));
+        pkg.addType(new ResTable.TypeSpec(INTEGER_TYPE, "integer", new int[entryCount]));
+        pkg.addType(new ResTable.TypeSpec(STYLE_TYPE, "style", new int[entryCount]));
+
+        ResTable.Type strings = new ResTable.Type(STRING_TYPE, config(null));
+        ResTable.Type integers = new ResTable.Type(INTEGER_TYPE, config(null));
+        ResTable.Type styles = new ResTable.Type(STYLE_TYPE, config(null));
+        for (int i = 0; i < entryCount; i++) {
+            // repeated values, so that the string pool has something to intern
+            strings.addEntry(new ResTable.Entry(i, "string_" + i, new ResValue.Text("value " + (i % 50)),
+                    i % 2 == 0));
+            if (i % 5 != 4) {
+                ResValue value = i % 3 == 0 ? new ResValue.Reference(PACKAGE_ID, STRING_TYPE, i) :
+                        new ResValue.Integer(ResValue.TYPE_INT_DEC, i * 7);
+                integers.addEntry(new ResTable.Entry(i, "integer_" + i, value));
+            }
+            ResTable.MapEntry style = new ResTable.MapEntry(i, "style_" + i);
+            if (i > 0)
+                style.setParent(ResTable.makeReference(PACKAGE_ID, STYLE_TYPE, i - 1));
+            style.addValue(0x01010000 + i % 3, new ResValue.Integer(ResValue.TYPE_INT_COLOR_ARGB8, 0xff000000 | i));
+            style.addValue(0x01010100, new ResValue.Text("style " + i));
+            styles.addEntry(style);
+        }
+        pkg.addType(strings);
+        pkg.addType(integers);
+        pkg.addType(styles);
+        for (String language : languages) {
+            ResTable.Type translations = new ResTable.Type(STRING_TYPE, config(language));
+            for (int i = 0; i < entryCount; i += 3)
+                translations.addEntry(new ResTable.Entry(i, "string_" + i, new ResValue.Text(language + " " + i)));
+            pkg.addType(translations);
+        }
+        return table;
+    }
+
+    // The default config if the language is null
+    static ResTable.Config config(String language) {
+        ResTable.Config ret = new ResTable.Config();
+        if (language != null)
+            ret.language = language;
+        return ret;
+    }
+
+    // A config with the given language (or null), screen width in dp and SDK version; 0 leaves a field unset
+    static ResTable.Config config(String language, int screenWidthDp, int sdkVersion) {
+        ByteBuffer data = ByteBuffer.wrap(config(language).toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        data.putShort(24, (short) sdkVersion);
+        data.putShort(32, (short) screenWidthDp);
+        return ResTable.Config.read(data);
+    }
+
+    static byte[] write(ArscWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        return out.toByteArray();
+    }
+
+    static byte[] write(ResTable table) throws IOException {
+        return write(new ArscWriter(table));
+    }
+
+    static ResTable read(byte[] data) throws IOException {
+        return new ArscReader(ByteBuffer.wrap(data)).toResTable();
+    }
+
+    // The flags of the written Type chunk with the given type id and language (null for the default config)
+    static int getTypeFlags(byte[] data, int typeId, String language) throws IOException {
+        ResTable.Config config = config(language);
+        for (ArscReader.TypeReader type : new ArscReader(ByteBuffer.wrap(data)).getPackage(PACKAGE_ID).getTypes()) {
+            if (type.getId() == typeId && type.getConfig().equals(config))
+                return type.getTypeFlags();
+        }
+        throw new AssertionError("no type " + typeId + " for " + language);
+    }
+
+    static void assertTablesEqual(ResTable expected, ResTable actual) {
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    // One line per package, TypeSpec and entry, sorted so that the order of the chunks and of the entries in
+    // them doesn't matter. Types with equal configs are written as one, so entries are described by the config
+    // and not by the Type they are in.
+    static List<String> describe(ResTable table) {
+        List<String> ret = new ArrayList<>();
+        for (ResTable.Package pkg : table.getPackages()) {
+            String prefix = Integer.toHexString(pkg.id) + " ";
+            ret.add(prefix + "package " + pkg.name);
+            for (ResTable.TypeBase type : pkg.getTypes()) {
+                if (type instanceof ResTable.TypeSpec) {
+                    ResTable.TypeSpec spec = (ResTable.TypeSpec) type;
+                    ret.add(prefix + spec.id + " spec " + spec.name + " " + Arrays.toString(spec.flags));
+                    continue;
+                }
+                ResTable.Type t = (ResTable.Type) type;
+                Iterable<? extends ResTable.EntryBase> entries = t.getEntrySource() != null ? t.getEntrySource() :
+                        t.entries != null ? t.entries : Collections.<ResTable.EntryBase>emptyList();
+                String typePrefix = prefix + t.id + " " + Arrays.toString(t.config.toByteArray()) + " ";
+                for (ResTable.EntryBase entry : entries)
+                    ret.add(typePrefix + describe(entry));
+            }
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private static String describe(ResTable.EntryBase entry) {
+        // the compact flag is how the entry was encoded, not part of its content
+        int flags = entry.flags & ~ResTable.EntryBase.FLAG_COMPACT;
+        StringBuilder ret = new StringBuilder();
+        ret.append(entry.id).append(' ').append(entry.key).append(" flags=").append(flags).append(' ');
+        if (entry instanceof ResTable.Entry) {
+            ret.append(describe(((ResTable.Entry) entry).getValue()));
+        } else {
+            ResTable.MapEntry map = (ResTable.MapEntry) entry;
+            ret.append("parent=").append(Integer.toHexString(map.parent));
+            for (ResTable.MapEntry.Entry value : map.value)
+                ret.append(' ').append(Integer.toHexString(value.name)).append('=').append(describe(value.value));
+        }
+        return ret.toString();
+    }
+
+    static String describe(ResValue value) {
+        if (value instanceof ResValue.Text)
+            return "\"" + ((ResValue.Text) value).data + "\"";
+        ResValue.Integer integer = (ResValue.Integer) value;
+        return integer.dataType + ":" + Integer.toHexString(integer.data);
+    }
+
+}
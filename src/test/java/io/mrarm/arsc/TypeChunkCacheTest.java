@@ -0,0 +1,127 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class TypeChunkCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Records the cache lookups and the entry counts of the written types
+    private static class RecordingListener implements WriteListener {
+
+        final List<String> lookups = new ArrayList<>();
+        final List<String> types = new ArrayList<>();
+
+        private static String describe(int typeId, ResTable.Config config) {
+            return typeId + " " + (config.language.equals(ResTable.Config.STR_ANY) ? "default" : config.language);
+        }
+
+        @Override
+        public void onTypeChunkCacheLookup(int typeId, ResTable.Config config, boolean hit) {
+            lookups.add(describe(typeId, config) + " " + (hit ? "hit" : "miss"));
+        }
+
+        @Override
+        public void onTypeWritten(int packageId, int typeId, ResTable.Config config, long durationNanos, int size,
+                                  int entryCount, int deduplicatedEntryCount) {
+            types.add(describe(typeId, config) + " size=" + size + " entries=" + entryCount + " deduplicated=" +
+                    deduplicatedEntryCount);
+        }
+
+    }
+
+    // The sample table with a French integer type, all of whose entries are the same
+    private static ResTable createTable() {
+        ResTable table = TestTables.createTable(200, "de");
+        ResTable.Type duplicates = new ResTable.Type(TestTables.INTEGER_TYPE, TestTables.config("fr"));
+        for (int i = 0; i < 20; i++)
+            duplicates.addEntry(new ResTable.Entry(i, "integer_0", new ResValue.Integer(ResValue.TYPE_INT_DEC, 0)));
+        table.getPackages().get(0).addType(duplicates);
+        return table;
+    }
+
+    private static ArscWriter createWriter(ResTable table, int settings, TypeChunkCache cache,
+                                           WriteListener listener) {
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold((settings & 1) != 0 ? 0.9f : 0);
+        writer.setOffset16Enabled((settings & 2) != 0);
+        writer.setCompactEntriesEnabled((settings & 4) != 0);
+        writer.setEntryDeduplicationEnabled((settings & 8) != 0);
+        writer.setTypeChunkCache(cache);
+        writer.setWriteListener(listener);
+        return writer;
+    }
+
+    private static List<String> describeLookups(String result) {
+        List<String> ret = new ArrayList<>();
+        for (String type : new String[] { "1 default", "2 default", "3 default", "1 de", "2 fr" })
+            ret.add(type + " " + result);
+        return ret;
+    }
+
+    @Test
+    public void testHitSameAsColdWrite() throws IOException {
+        ResTable table = createTable();
+        for (int settings = 0; settings < 16; settings++) {
+            TypeChunkCache cache = new TypeChunkCache(folder.newFolder().toPath(), Long.MAX_VALUE, Long.MAX_VALUE);
+            RecordingListener expected = new RecordingListener();
+            byte[] data = TestTables.write(createWriter(table, settings, null, expected));
+
+            RecordingListener cold = new RecordingListener();
+            assertArrayEquals(data, TestTables.write(createWriter(table, settings, cache, cold)));
+            assertEquals(describeLookups("miss"), cold.lookups);
+
+            RecordingListener warm = new RecordingListener();
+            assertArrayEquals(data, TestTables.write(createWriter(table, settings, cache, warm)));
+            assertEquals(describeLookups("hit"), warm.lookups);
+            // the counts of a copied chunk are the same as those of a serialized one
+            assertEquals(expected.types, cold.types);
+            assertEquals(expected.types, warm.types);
+        }
+    }
+
+    @Test
+    public void testDeduplicatedCountOnHit() throws IOException {
+        TypeChunkCache cache = new TypeChunkCache(folder.newFolder().toPath(), Long.MAX_VALUE, Long.MAX_VALUE);
+        // deduplication with each of the offset encodings
+        for (int settings : new int[] { 8, 8 | 1, 8 | 2 }) {
+            TestTables.write(createWriter(createTable(), settings, cache, null));
+            RecordingListener listener = new RecordingListener();
+            TestTables.write(createWriter(createTable(), settings, cache, listener));
+            assertEquals("2 fr hit", listener.lookups.get(4));
+            assertTrue(listener.types.get(4), listener.types.get(4).endsWith(" entries=20 deduplicated=19"));
+        }
+    }
+
+    @Test
+    public void testChangedTypeMisses() throws IOException {
+        TypeChunkCache cache = new TypeChunkCache(folder.newFolder().toPath(), Long.MAX_VALUE, Long.MAX_VALUE);
+        TestTables.write(createWriter(createTable(), 0, cache, null));
+
+        ResTable changed = createTable();
+        ResTable.Type integers = (ResTable.Type) changed.getPackages().get(0).getTypes().get(4);
+        integers.entries.set(1, new ResTable.Entry(1, "integer_1", new ResValue.Integer(ResValue.TYPE_INT_DEC, 42)));
+        RecordingListener listener = new RecordingListener();
+        byte[] data = TestTables.write(createWriter(changed, 0, cache, listener));
+        List<String> expected = describeLookups("hit");
+        expected.set(1, "2 default miss");
+        assertEquals(expected, listener.lookups);
+        assertArrayEquals(TestTables.write(changed), data);
+        TestTables.assertTablesEqual(changed, TestTables.read(data));
+    }
+
+}
@@ -0,0 +1,92 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+import io.mrarm.arsc.chunks.ResValue;
+
+public class TypeLayoutTest {
+
+    private static ArscWriter createWriter(ResTable table, int settings) {
+        ArscWriter writer = new ArscWriter(table);
+        writer.setSparseTypeThreshold((settings & 1) != 0 ? 0.9f : 0);
+        writer.setOffset16Enabled((settings & 2) != 0);
+        writer.setCompactEntriesEnabled((settings & 4) != 0);
+        return writer;
+    }
+
+    // The entries of an integer type, every fifth missing, with the given order of the list
+    private static ResTable createIntegerTable(boolean shuffle) {
+        ResTable table = new ResTable();
+        ResTable.Package pkg = new ResTable.Package(TestTables.PACKAGE_ID, TestTables.PACKAGE_NAME);
+        table.addPackage(pkg);
+        pkg.addType(new ResTable.TypeSpec(1, "integer", new int[500]));
+        List<ResTable.EntryBase> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            if (i % 5 == 4)
+                continue;
+            ResTable.MapEntry array = new ResTable.MapEntry(i, "array_" + i);
+            for (int j = 0; j < i % 4; j++)
+                array.addValue(0x02000000 + j, new ResValue.Integer(ResValue.TYPE_INT_DEC, j));
+            entries.add(i % 3 == 0 ? array : new ResTable.Entry(i, "integer_" + i,
+                    new ResValue.Integer(ResValue.TYPE_INT_DEC, i)));
+        }
+        if (shuffle)
+            Collections.shuffle(entries, new Random(1));
+        ResTable.Type type = new ResTable.Type(1, TestTables.config(null));
+        type.entries = entries;
+        pkg.addType(type);
+        return table;
+    }
+
+    // The entries are laid out back to back in the order of their ids, as the writer always did for lists in id
+    // order
+    @Test
+    public void testEntriesInIdOrder() throws IOException {
+        for (int settings = 0; settings < 8; settings++) {
+            byte[] data = TestTables.write(createWriter(createIntegerTable(true), settings));
+            ArscReader.TypeReader type = new ArscReader(ByteBuffer.wrap(data)).getPackage(TestTables.PACKAGE_ID)
+                    .getTypes().get(0);
+            int offset = 0;
+            for (int id : type.getEntryIds()) {
+                assertEquals("entry " + id, offset, type.getEntryOffset(id));
+                offset += type.getEntrySize(offset);
+            }
+            // and nothing follows the last one
+            assertEquals(data.length, type.getOffset() + type.getEntriesStart() + offset);
+        }
+    }
+
+    @Test
+    public void testListOrderDoesNotMatter() throws IOException {
+        for (int settings = 0; settings < 8; settings++) {
+            assertArrayEquals("settings " + settings,
+                    TestTables.write(createWriter(createIntegerTable(false), settings)),
+                    TestTables.write(createWriter(createIntegerTable(true), settings)));
+        }
+    }
+
+    // The streaming writer lays the entries out in the order of the source, like the list order layout did
+    @Test
+    public void testSameAsSourceOrder() throws IOException {
+        for (int settings = 0; settings < 8; settings++) {
+            ResTable table = createIntegerTable(false);
+            ResTable streaming = createIntegerTable(false);
+            ResTable.Type type = (ResTable.Type) streaming.getPackages().get(0).getTypes().get(1);
+            type.setEntrySource(new ArrayList<>(type.entries));
+            assertArrayEquals("settings " + settings, TestTables.write(createWriter(table, settings)),
+                    TestTables.write(createWriter(streaming, settings)));
+        }
+    }
+
+}
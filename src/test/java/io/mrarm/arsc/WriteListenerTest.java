@@ -0,0 +1,153 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import io.mrarm.arsc.chunks.ResTable;
+
+public class WriteListenerTest {
+
+    // Records the callbacks without their durations, and adds up the sizes
+    private static class RecordingListener implements WriteListener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        int globalPoolSize;
+        int packagePoolsSize;
+        long typesSize;
+        int packageSize;
+        long writtenSize;
+
+        private void checkDuration(long durationNanos) {
+            assertTrue(durationNanos >= 0);
+        }
+
+        @Override
+        public void onPrepared(long durationNanos) {
+            checkDuration(durationNanos);
+            events.add("prepared");
+        }
+
+        @Override
+        public void onGlobalStringPoolBuilt(long durationNanos, int appendedCount, int deduplicatedCount,
+                                            int size) {
+            checkDuration(durationNanos);
+            events.add("global pool " + appendedCount + " " + deduplicatedCount);
+            globalPoolSize = size;
+        }
+
+        @Override
+        public void onPackagePoolsBuilt(int packageId, long durationNanos, int typeStringCount, int keyStringCount,
+                                        int size) {
+            checkDuration(durationNanos);
+            events.add("package pools " + Integer.toHexString(packageId) + " " + typeStringCount + " " +
+                    keyStringCount);
+            packagePoolsSize = size;
+        }
+
+        @Override
+        public synchronized void onTypeSpecWritten(int packageId, int typeId, long durationNanos, int size) {
+            checkDuration(durationNanos);
+            events.add("spec " + typeId);
+            // the header and a flags word per entry
+            assertEquals(16 + 4 * ENTRY_COUNT, size);
+            typesSize += size;
+        }
+
+        @Override
+        public synchronized void onTypeWritten(int packageId, int typeId, ResTable.Config config,
+                                               long durationNanos, int size, int entryCount,
+                                               int deduplicatedEntryCount) {
+            checkDuration(durationNanos);
+            events.add("type " + typeId + " " + (config.equals(TestTables.config(null)) ? "default" : "de") + " " +
+                    entryCount + " " + deduplicatedEntryCount);
+            typesSize += size;
+        }
+
+        @Override
+        public void onPackageWritten(int packageId, long durationNanos, int size) {
+            checkDuration(durationNanos);
+            events.add("package " + Integer.toHexString(packageId));
+            packageSize = size;
+        }
+
+        @Override
+        public void onWritten(long durationNanos, long size) {
+            checkDuration(durationNanos);
+            events.add("written");
+            writtenSize = size;
+        }
+
+    }
+
+    private static final int ENTRY_COUNT = 100;
+
+    private static final List<String> EXPECTED_EVENTS = Arrays.asList(
+            // 280 keys, plus the 17 keys of public strings whose translations are private
+            "package pools 7f 3 297",
+            // 100 strings with 50 distinct values, 100 styles and 34 translations
+            "global pool 234 50",
+            "prepared",
+            "spec 1",
+            "spec 2",
+            "spec 3",
+            "type 1 default 100 0",
+            // every fifth integer is missing
+            "type 2 default 80 0",
+            "type 3 default 100 0",
+            "type 1 de 34 0",
+            "package 7f",
+            "written");
+
+    private static void assertSizes(RecordingListener listener, byte[] data) {
+        assertEquals(data.length, listener.writtenSize);
+        // the table header and the global pool
+        assertEquals(data.length - 12 - listener.globalPoolSize, listener.packageSize);
+        // the package header, its pools and its types
+        assertEquals(284 + listener.packagePoolsSize + listener.typesSize, listener.packageSize);
+    }
+
+    @Test
+    public void testCallbacks() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        ArscWriter writer = new ArscWriter(TestTables.createTable(ENTRY_COUNT, "de"));
+        writer.setWriteListener(listener);
+        byte[] data = TestTables.write(writer);
+        assertEquals(EXPECTED_EVENTS, listener.events);
+        assertSizes(listener, data);
+    }
+
+    @Test
+    public void testParallelCallbacks() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            RecordingListener listener = new RecordingListener();
+            ArscWriter writer = new ArscWriter(TestTables.createTable(ENTRY_COUNT, "de"));
+            writer.setWriteListener(listener);
+            writer.setExecutor(executor);
+            byte[] data = TestTables.write(writer);
+            // the types are written concurrently, so only the phases are in order
+            List<String> expected = new ArrayList<>(EXPECTED_EVENTS);
+            List<String> actual = new ArrayList<>(listener.events);
+            assertEquals(expected.subList(0, 3), actual.subList(0, 3));
+            assertEquals(expected.subList(expected.size() - 2, expected.size()),
+                    actual.subList(actual.size() - 2, actual.size()));
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+            assertSizes(listener, data);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package io.mrarm.arsc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.mrarm.arsc.chunks.ResTable;
+
+public class ZipEntryTest {
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_HEADER_EXTERNAL_ATTRIBUTES_OFFSET = 38;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Writes an archive with the table as its only entry, after a byte which throws off the alignment
+    private StoredZipEntry writeArchive(ResTable table, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0 }));
+            StoredZipEntry entry = new ArscWriter(table).writeZipEntry(channel, "resources.arsc");
+            long centralDirectoryOffset = channel.position();
+            entry.writeCentralDirectoryHeader(channel);
+            int centralDirectorySize = (int) (channel.position() - centralDirectoryOffset);
+            ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) 1);
+            end.putShort((short) 1);
+            end.putInt(centralDirectorySize);
+            end.putInt((int) centralDirectoryOffset);
+            end.putShort((short) 0);
+            end.flip();
+            channel.write(end);
+            return entry;
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ResTable table = TestTables.createTable(100, "de");
+        Path path = folder.newFile().toPath();
+        StoredZipEntry entry = writeArchive(table, path);
+        assertEquals(0, entry.getDataOffset() % StoredZipEntry.DEFAULT_ALIGNMENT);
+
+        byte[] data;
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            ZipEntry zipEntry = zip.getEntry("resources.arsc");
+            assertEquals(ZipEntry.STORED, zipEntry.getMethod());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = zip.getInputStream(zipEntry)) {
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) != -1)
+                    out.write(buf, 0, n);
+            }
+            data = out.toByteArray();
+        }
+        assertArrayEquals(TestTables.write(table), data);
+        TestTables.assertTablesEqual(table, TestTables.read(data));
+    }
+
+    @Test
+    public void testUnixFileMode() throws IOException {
+        Path path = folder.newFile().toPath();
+        writeArchive(TestTables.createTable(10), path);
+        byte[] archive = Files.readAllBytes(path);
+        ByteBuffer buf = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+        int centralDirectoryOffset = buf.getInt(archive.length - 6);
+        int attributes = buf.getInt(centralDirectoryOffset + CENTRAL_HEADER_EXTERNAL_ATTRIBUTES_OFFSET);
+        assertEquals(0100644, attributes >>> 16);
+    }
+
+}